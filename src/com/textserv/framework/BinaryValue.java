@@ -0,0 +1,425 @@
+package com.textserv.framework;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Bytes held by a DataObject, see setBinary and setBinaryStream.  Immutable: the
+ * bytes are copied in once and every way of reading them (openStream,
+ * asByteBuffer) is read only, so a value can be shared by any number of objects
+ * and snapshots without copying.  The binary codec writes the bytes as they are,
+ * the text codecs write them as base64, which is also what toString() returns.
+ * <p>
+ * Values of at least getSpillThreshold() bytes are written to a temp file and
+ * memory mapped instead of being kept on the heap, the file is deleted as soon as
+ * it is mapped and its space is freed when the value is garbage collected.
+ */
+public final class BinaryValue implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int COPY_CHUNK = 1024 * 64;
+
+	private static volatile int spillThreshold = Integer.MAX_VALUE;
+	private static volatile File spillDirectory = null;
+
+	//a heap buffer over bytes only this value holds, or a read only mapping of a spilled file
+	private final transient ByteBuffer content;
+
+	public BinaryValue(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	public BinaryValue(byte[] bytes, int offset, int length) {
+		this(ByteBuffer.wrap(bytes, offset, length), false);
+	}
+
+	/**
+	 * The remaining bytes of buffer, its position is left where it was.
+	 */
+	public BinaryValue(ByteBuffer buffer) {
+		this(buffer, false);
+	}
+
+	//owned content is taken over as it is, nobody else may hold it, anything else is copied or spilled
+	private BinaryValue(ByteBuffer content, boolean owned) {
+		if ( owned ) {
+			this.content = content;
+		} else {
+			this.content = content.remaining() >= spillThreshold ? spill(content.duplicate()) : copy(content);
+		}
+	}
+
+	/**
+	 * Values of at least this many bytes are spilled to a memory mapped temp file.
+	 * Off (Integer.MAX_VALUE) by default.
+	 */
+	public static void setSpillThreshold(int bytes) {
+		spillThreshold = bytes;
+	}
+
+	public static int getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * Where spilled values go, null (the default) for java.io.tmpdir.
+	 */
+	public static void setSpillDirectory(File directory) {
+		spillDirectory = directory;
+	}
+
+	public static File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Reads in to the end of the stream, the stream is not closed.  Once the spill
+	 * threshold has been reached the rest goes straight to the temp file.
+	 */
+	public static BinaryValue read(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024 * 4];
+		int length = 0;
+		int count;
+		while ( (count = in.read(buffer, length, buffer.length - length)) != -1 ) {
+			length += count;
+			if ( length >= spillThreshold ) {
+				return new BinaryValue(spill(buffer, length, in), true);
+			}
+			if ( length == buffer.length ) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+		return new BinaryValue(ByteBuffer.wrap(length == buffer.length ? buffer : Arrays.copyOf(buffer, length)), true);
+	}
+
+	/**
+	 * Reads exactly length bytes.
+	 */
+	public static BinaryValue read(DataInput in, int length) throws IOException {
+		if ( length >= spillThreshold ) {
+			File file = createSpillFile();
+			ByteBuffer mapping = null;
+			try {
+				RandomAccessFile out = new RandomAccessFile(file, "rw");
+				try {
+					byte[] chunk = new byte[COPY_CHUNK];
+					for ( int remaining = length; remaining > 0; remaining -= chunk.length ) {
+						int count = Math.min(remaining, chunk.length);
+						in.readFully(chunk, 0, count);
+						out.write(chunk, 0, count);
+					}
+					mapping = map(file, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				discardUnmapped(file, mapping);
+			}
+			return new BinaryValue(mapping, true);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new BinaryValue(ByteBuffer.wrap(bytes), true);
+	}
+
+	public static BinaryValue fromBase64(String base64) {
+		return wrapOrSpill(Base64.decodeBase64(base64));
+	}
+
+	//takes bytes over without a copy, only for arrays nobody else holds
+	private static BinaryValue wrapOrSpill(byte[] bytes) {
+		return new BinaryValue(bytes.length >= spillThreshold ? spill(ByteBuffer.wrap(bytes)) : ByteBuffer.wrap(bytes), true);
+	}
+
+	private static ByteBuffer copy(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static ByteBuffer spill(ByteBuffer bytes) {
+		try {
+			File file = createSpillFile();
+			ByteBuffer mapping = null;
+			try {
+				RandomAccessFile out = new RandomAccessFile(file, "rw");
+				try {
+					FileChannel channel = out.getChannel();
+					while ( bytes.hasRemaining() ) {
+						channel.write(bytes);
+					}
+					mapping = map(file, out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				discardUnmapped(file, mapping);
+			}
+			return mapping;
+		} catch (IOException e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	private static ByteBuffer spill(byte[] head, int headLength, InputStream in) throws IOException {
+		File file = createSpillFile();
+		ByteBuffer mapping = null;
+		try {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.write(head, 0, headLength);
+				byte[] chunk = head.length >= COPY_CHUNK ? head : new byte[COPY_CHUNK];
+				int count;
+				while ( (count = in.read(chunk)) != -1 ) {
+					out.write(chunk, 0, count);
+				}
+				mapping = map(file, out);
+			} finally {
+				out.close();
+			}
+		} finally {
+			discardUnmapped(file, mapping);
+		}
+		return mapping;
+	}
+
+	private static File createSpillFile() throws IOException {
+		return File.createTempFile("dataobject", ".blob", spillDirectory);
+	}
+
+	//a spill that failed before it was mapped (end of stream, io error, over 2GB) leaves no file behind
+	private static void discardUnmapped(File file, ByteBuffer mapping) {
+		if ( mapping == null && !file.delete() ) {
+			file.deleteOnExit();
+		}
+	}
+
+	//the mapping outlives the file and the channel, the space is released when it is collected
+	private static ByteBuffer map(File file, RandomAccessFile spilled) throws IOException {
+		FileChannel channel = spilled.getChannel();
+		if ( channel.size() > Integer.MAX_VALUE ) {
+			throw new IOException("Binary values are limited to 2GB, " + channel.size() + " bytes were spilled");
+		}
+		ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		if ( !file.delete() ) {
+			//platforms that cannot delete a mapped file
+			file.deleteOnExit();
+		}
+		return mapping;
+	}
+
+	public int length() {
+		return content.remaining();
+	}
+
+	public byte byteAt(int index) {
+		return content.get(index);
+	}
+
+	/**
+	 * True when the bytes are in a memory mapped temp file rather than on the heap.
+	 */
+	public boolean isSpilled() {
+		return content.isDirect();
+	}
+
+	/**
+	 * A stream over the bytes themselves, nothing is copied.
+	 */
+	public InputStream openStream() {
+		final ByteBuffer source = content.duplicate();
+		return new InputStream() {
+			public int read() {
+				return source.hasRemaining() ? source.get() & 0xFF : -1;
+			}
+
+			public int read(byte[] b, int off, int len) {
+				if ( len == 0 ) {
+					return 0;
+				}
+				if ( !source.hasRemaining() ) {
+					return -1;
+				}
+				int count = Math.min(len, source.remaining());
+				source.get(b, off, count);
+				return count;
+			}
+
+			public long skip(long n) {
+				int count = (int) Math.max(0, Math.min(n, source.remaining()));
+				source.position(source.position() + count);
+				return count;
+			}
+
+			public int available() {
+				return source.remaining();
+			}
+		};
+	}
+
+	/**
+	 * A read only buffer over the bytes themselves, nothing is copied.
+	 */
+	public ByteBuffer asByteBuffer() {
+		return content.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Writes the bytes to out, a spilled value is copied from the mapping a chunk at a time.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if ( content.hasArray() ) {
+			out.write(content.array(), content.arrayOffset(), content.remaining());
+			return;
+		}
+		ByteBuffer source = content.duplicate();
+		byte[] chunk = new byte[Math.min(COPY_CHUNK, source.remaining())];
+		while ( source.hasRemaining() ) {
+			int count = Math.min(chunk.length, source.remaining());
+			source.get(chunk, 0, count);
+			out.write(chunk, 0, count);
+		}
+	}
+
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes the bytes base64 encoded (no line breaks) without building the String first.
+	 */
+	public void writeBase64(Appendable out) throws IOException {
+		ByteBuffer source = content.duplicate();
+		char[] chunk = new char[1024];
+		int used = 0;
+		while ( source.remaining() >= 3 ) {
+			int bits = (source.get() & 0xFF) << 16 | (source.get() & 0xFF) << 8 | (source.get() & 0xFF);
+			chunk[used++] = BASE64[bits >>> 18];
+			chunk[used++] = BASE64[(bits >>> 12) & 0x3F];
+			chunk[used++] = BASE64[(bits >>> 6) & 0x3F];
+			chunk[used++] = BASE64[bits & 0x3F];
+			if ( used == chunk.length ) {
+				append(out, chunk, used);
+				used = 0;
+			}
+		}
+		if ( source.hasRemaining() ) {
+			boolean two = source.remaining() == 2;
+			int bits = (source.get() & 0xFF) << 16 | (two ? (source.get() & 0xFF) << 8 : 0);
+			chunk[used++] = BASE64[bits >>> 18];
+			chunk[used++] = BASE64[(bits >>> 12) & 0x3F];
+			chunk[used++] = two ? BASE64[(bits >>> 6) & 0x3F] : '=';
+			chunk[used++] = '=';
+		}
+		append(out, chunk, used);
+	}
+
+	/**
+	 * Writes the base64 of the bytes from offset on into out, as many whole groups of four
+	 * characters as fit, and returns the offset of the first byte not written: length()
+	 * once the last group (with its padding) is in.  offset is a multiple of three.
+	 * Nothing is allocated, so an encoder can write straight into its own buffer and
+	 * carry on from the returned offset once it has room again.
+	 */
+	public int writeBase64(ByteBuffer out, int offset) {
+		int length = content.remaining();
+		int base = content.position();
+		while ( offset < length && out.remaining() >= 4 ) {
+			int count = Math.min(3, length - offset);
+			int bits = (content.get(base + offset) & 0xFF) << 16;
+			if ( count > 1 ) {
+				bits |= (content.get(base + offset + 1) & 0xFF) << 8;
+			}
+			if ( count > 2 ) {
+				bits |= content.get(base + offset + 2) & 0xFF;
+			}
+			out.put((byte) BASE64[bits >>> 18]);
+			out.put((byte) BASE64[(bits >>> 12) & 0x3F]);
+			out.put(count > 1 ? (byte) BASE64[(bits >>> 6) & 0x3F] : (byte) '=');
+			out.put(count > 2 ? (byte) BASE64[bits & 0x3F] : (byte) '=');
+			offset += count;
+		}
+		return offset;
+	}
+
+	/**
+	 * toString().hashCode(), without building the String.
+	 */
+	int base64HashCode() {
+		ByteBuffer group = ByteBuffer.allocate(4);
+		int length = length();
+		int hash = 0;
+		for ( int offset = 0; offset < length; ) {
+			group.clear();
+			offset = writeBase64(group, offset);
+			for ( int i = 0; i < 4; i++ ) {
+				hash = 31 * hash + group.get(i);
+			}
+		}
+		return hash;
+	}
+
+	private static void append(Appendable out, char[] chunk, int length) throws IOException {
+		if ( out instanceof StringBuilder ) {
+			((StringBuilder) out).append(chunk, 0, length);
+		} else if ( out instanceof Writer ) {
+			((Writer) out).write(chunk, 0, length);
+		} else {
+			out.append(new String(chunk, 0, length));
+		}
+	}
+
+	public boolean equals(Object o) {
+		return o instanceof BinaryValue && content.equals(((BinaryValue) o).content);
+	}
+
+	public int hashCode() {
+		return content.hashCode();
+	}
+
+	/**
+	 * The bytes in base64, without the line breaks setBinaryStream used to store.
+	 */
+	public String toString() {
+		StringBuilder base64 = new StringBuilder((length() + 2) / 3 * 4);
+		try {
+			writeBase64(base64);
+		} catch (IOException e) {
+			throw new DataObjectException(e);
+		}
+		return base64.toString();
+	}
+
+	//a mapping cannot be serialized, the bytes can
+	private Object writeReplace() throws ObjectStreamException {
+		return new SerializedForm(toByteArray());
+	}
+
+	private static final class SerializedForm implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final byte[] bytes;
+
+		SerializedForm(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			return wrapOrSpill(bytes);
+		}
+	}
+}
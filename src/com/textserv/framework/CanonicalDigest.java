@@ -0,0 +1,218 @@
+package com.textserv.framework;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Streams the canonical form of a DataObject's fields into an MD5 digest, without
+ * building the JSON (or any other) String first.  Every value is written as a type
+ * tag followed by a fixed size or length prefixed payload, nested DataObjects are
+ * written as their own digest so an unchanged subtree is never hashed again.
+ * <p>
+ * One instance per thread, a digest must be finished before the next one is begun.
+ */
+final class CanonicalDigest {
+
+	static final byte KEY = 'K';
+	static final byte NULL = 'N';
+	static final byte STRING = 'S';
+	static final byte INTEGRAL = 'I';
+	static final byte DOUBLE = 'D';
+	static final byte FLOAT = 'F';
+	static final byte CHAR = 'C';
+	static final byte BOOLEAN = 'B';
+	static final byte DATE = 'T';
+	static final byte DATA_OBJECT = 'O';
+	static final byte LIST = 'L';
+	static final byte ENCODED_LIST = 'E';
+	static final byte OTHER = 'X';
+
+	private static final ThreadLocal<CanonicalDigest> digestHolder = new ThreadLocal<CanonicalDigest>();
+
+	private final MessageDigest md5;
+	private final byte[] buffer = new byte[1024];
+	private final ByteBuffer base64Chunk = ByteBuffer.allocate(256);
+	private int position = 0;
+
+	private CanonicalDigest() {
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	static CanonicalDigest begin() {
+		CanonicalDigest digest = digestHolder.get();
+		if ( digest == null ) {
+			digest = new CanonicalDigest();
+			digestHolder.set(digest);
+		}
+		digest.position = 0;
+		digest.md5.reset();
+		return digest;
+	}
+
+	byte[] finish() {
+		flush();
+		return md5.digest();
+	}
+
+	void writeKey(String key) {
+		writeString(KEY, key);
+	}
+
+	void writeString(byte tag, String value) {
+		int length = value.length();
+		writeTag(tag);
+		writeInt(length);
+		for ( int i = 0; i < length; i++ ) {
+			ensure(2);
+			char c = value.charAt(i);
+			buffer[position++] = (byte) (c >>> 8);
+			buffer[position++] = (byte) c;
+		}
+	}
+
+	void writeLong(byte tag, long value) {
+		writeTag(tag);
+		ensure(8);
+		for ( int shift = 56; shift >= 0; shift -= 8 ) {
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+
+	void writeIntegral(long value) {
+		writeLong(INTEGRAL, value);
+	}
+
+	void writeDouble(double value) {
+		//doubleToLongBits folds every NaN into one value
+		writeLong(DOUBLE, Double.doubleToLongBits(value));
+	}
+
+	void writeFloat(float value) {
+		writeTag(FLOAT);
+		writeInt(Float.floatToIntBits(value));
+	}
+
+	void writeChar(char value) {
+		writeTag(CHAR);
+		ensure(2);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	void writeBoolean(boolean value) {
+		writeTag(BOOLEAN);
+		writeTag(value ? (byte) 1 : (byte) 0);
+	}
+
+	void writeDigest(byte[] digest) {
+		writeTag(DATA_OBJECT);
+		ensure(digest.length);
+		System.arraycopy(digest, 0, buffer, position, digest.length);
+		position += digest.length;
+	}
+
+	/**
+	 * Writes any field value, the digests of nested DataObjects must already be cached.
+	 */
+	void writeValue(Object value) {
+		if ( value == null ) {
+			writeTag(NULL);
+		} else if ( value instanceof String ) {
+			writeString(STRING, (String) value);
+		} else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+			writeIntegral(((Number) value).longValue());
+		} else if ( value instanceof Double ) {
+			writeDouble(((Double) value).doubleValue());
+		} else if ( value instanceof Float ) {
+			writeFloat(((Float) value).floatValue());
+		} else if ( value instanceof Boolean ) {
+			writeBoolean(((Boolean) value).booleanValue());
+		} else if ( value instanceof Character ) {
+			writeChar(((Character) value).charValue());
+		} else if ( value instanceof Date ) {
+			writeLong(DATE, ((Date) value).getTime());
+		} else if ( value instanceof DataObject ) {
+			writeDigest(((DataObject) value).cachedDigest());
+		} else if ( value instanceof BinaryValue ) {
+			writeBinary((BinaryValue) value);
+		} else if ( value instanceof PrimitiveList ) {
+			writePrimitiveList((PrimitiveList<?>) value);
+		} else if ( value instanceof List ) {
+			List<?> list = (List<?>) value;
+			writeTag(LIST);
+			writeInt(list.size());
+			for ( Object element : list ) {
+				writeValue(element);
+			}
+		} else if ( value instanceof DataObject.StringEncodedDataObjectList ) {
+			List<String> encoded = ((DataObject.StringEncodedDataObjectList) value).encodedDataObjects;
+			if ( encoded == null ) {
+				writeTag(NULL);
+			} else {
+				writeTag(ENCODED_LIST);
+				writeInt(encoded.size());
+				for ( String element : encoded ) {
+					writeValue(element);
+				}
+			}
+		} else {
+			writeString(OTHER, value.toString());
+		}
+	}
+
+	//same bytes as the base64 String the text codecs write for it and decode it back into
+	private void writeBinary(BinaryValue value) {
+		int length = value.length();
+		writeTag(STRING);
+		writeInt((length + 2) / 3 * 4);
+		for ( int offset = 0; offset < length; ) {
+			base64Chunk.clear();
+			offset = value.writeBase64(base64Chunk, offset);
+			ensure(base64Chunk.position() * 2);
+			for ( int i = 0; i < base64Chunk.position(); i++ ) {
+				buffer[position++] = 0;
+				buffer[position++] = base64Chunk.get(i);
+			}
+		}
+	}
+
+	//same bytes as the list of strings the codecs write for it and decode it back into
+	private void writePrimitiveList(PrimitiveList<?> list) {
+		writeTag(LIST);
+		writeInt(list.size());
+		for ( int i = 0; i < list.size(); i++ ) {
+			writeString(STRING, list.elementText(i));
+		}
+	}
+
+	private void writeTag(byte tag) {
+		ensure(1);
+		buffer[position++] = tag;
+	}
+
+	private void writeInt(int value) {
+		ensure(4);
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	private void ensure(int bytes) {
+		if ( position + bytes > buffer.length ) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		md5.update(buffer, 0, position);
+		position = 0;
+	}
+}
@@ -0,0 +1,505 @@
+package com.textserv.framework;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Insertion ordered key/value storage used by a DataObject in compact mode.
+ * The keys and their slot numbers come from a {@link DataObjectShape} that is
+ * shared by every store built with the same key sequence, the store itself only
+ * holds the values in slot order, so there is no per field Entry node.
+ * <p>
+ * Primitive values written through the typed setters are kept unboxed in a
+ * parallel long array tagged by kind, they are only boxed (once) when read
+ * through the generic Map api.
+ * <p>
+ * A slot can also hold a {@link DataObjectType} tag, the kind byte is then the
+ * whole value, this is how a compact "MetaData" object keeps its field types.
+ */
+final class CompactDataObjectStore {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	//kinds of value held in a slot, REF means the value is the Object in values[]
+	static final byte REF = 0;
+	static final byte INT = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte FLOAT = 4;
+	static final byte SHORT = 5;
+	static final byte BYTE = 6;
+	static final byte CHAR = 7;
+	static final byte BOOLEAN = 8;
+	//kinds from TAG on are a DataObjectType tag, its code is kind - TAG
+	static final byte TAG = 16;
+	//a String value with what it parses to kept in prims, the String is still the value
+	static final byte STRING_WITH_DOUBLE = 48;
+	static final byte STRING_WITH_DATE = 49;
+
+	private DataObjectShape shape = DataObjectShape.ROOT;
+	private Object[] values;
+	//kinds is allocated on the first primitive or tag put, prims on the first primitive put
+	private long[] prims;
+	private byte[] kinds;
+	private int modCount;
+	//set for the store of a frozen DataObject, every write then throws
+	private boolean readOnly = false;
+
+	CompactDataObjectStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	CompactDataObjectStore(int capacity) {
+		values = new Object[Math.max(capacity, 1)];
+	}
+
+	int size() {
+		return shape.size();
+	}
+
+	String keyAt(int slot) {
+		return shape.keyAt(slot);
+	}
+
+	DataObjectShape shape() {
+		return shape;
+	}
+
+	Object valueAt(int slot) {
+		Object value = values[slot];
+		if ( value == null && kinds != null && kinds[slot] != REF ) {
+			value = box(kinds[slot], prims[slot]);
+			//keep the box, the primitive stays authoritative for the typed getters
+			values[slot] = value;
+		}
+		return value;
+	}
+
+	Object setValueAt(int slot, Object value) {
+		checkWritable();
+		Object old = valueAt(slot);
+		values[slot] = value;
+		if ( kinds != null ) {
+			kinds[slot] = REF;
+		}
+		return old;
+	}
+
+	byte kindAt(int slot) {
+		return kinds == null ? REF : kinds[slot];
+	}
+
+	long primAt(int slot) {
+		return prims[slot];
+	}
+
+	int indexOf(Object key) {
+		return shape.indexOf(key);
+	}
+
+	boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	boolean containsValue(Object value) {
+		int size = shape.size();
+		for ( int i = 0; i < size; i++ ) {
+			Object v = valueAt(i);
+			if ( v == value || (v != null && v.equals(value)) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	Object get(Object key) {
+		int slot = indexOf(key);
+		return slot < 0 ? null : valueAt(slot);
+	}
+
+	Object put(String key, Object value) {
+		int slot = indexOf(key);
+		if ( slot >= 0 ) {
+			return setValueAt(slot, value);
+		}
+		slot = addSlot(key);
+		values[slot] = value;
+		return null;
+	}
+
+	void putInt(String key, int value) {
+		putPrimitive(key, INT, value);
+	}
+
+	void putLong(String key, long value) {
+		putPrimitive(key, LONG, value);
+	}
+
+	void putDouble(String key, double value) {
+		putPrimitive(key, DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	void putFloat(String key, float value) {
+		putPrimitive(key, FLOAT, Float.floatToRawIntBits(value));
+	}
+
+	void putShort(String key, short value) {
+		putPrimitive(key, SHORT, value);
+	}
+
+	void putByte(String key, byte value) {
+		putPrimitive(key, BYTE, value);
+	}
+
+	void putChar(String key, char value) {
+		putPrimitive(key, CHAR, value);
+	}
+
+	void putBoolean(String key, boolean value) {
+		putPrimitive(key, BOOLEAN, value ? 1L : 0L);
+	}
+
+	void putTag(String key, DataObjectType type) {
+		int slot = putKind(key, (byte) (TAG + type.getCode()));
+		//the box is a constant, keep it so reads need no lookup
+		values[slot] = type.getTypeName();
+	}
+
+	private void putPrimitive(String key, byte kind, long bits) {
+		int slot = putKind(key, kind);
+		if ( prims == null ) {
+			prims = new long[values.length];
+		}
+		values[slot] = null;
+		prims[slot] = bits;
+	}
+
+	private int putKind(String key, byte kind) {
+		checkWritable();
+		int slot = indexOf(key);
+		if ( slot < 0 ) {
+			slot = addSlot(key);
+		}
+		if ( kinds == null ) {
+			kinds = new byte[values.length];
+		}
+		kinds[slot] = kind;
+		return slot;
+	}
+
+	/**
+	 * Remembers what the String in slot parses to, until the slot is written again.
+	 */
+	void cacheParsed(int slot, byte kind, long bits) {
+		checkWritable();
+		if ( kinds == null ) {
+			kinds = new byte[values.length];
+		}
+		if ( prims == null ) {
+			prims = new long[values.length];
+		}
+		kinds[slot] = kind;
+		prims[slot] = bits;
+	}
+
+	//an unboxed primitive, as opposed to a reference, a type tag or a parsed String
+	static boolean isPrimitive(byte kind) {
+		return kind != REF && kind < TAG;
+	}
+
+	static boolean isTag(byte kind) {
+		return kind >= TAG && kind < STRING_WITH_DOUBLE;
+	}
+
+	DataObjectType tagAt(int slot) {
+		return kinds != null && isTag(kinds[slot]) ? DataObjectType.forCode(kinds[slot] - TAG) : null;
+	}
+
+	private int addSlot(String key) {
+		checkWritable();
+		int slot = shape.size();
+		shape = shape.withKey(key);
+		if ( slot == values.length ) {
+			int newCapacity = slot < 64 ? slot * 2 : slot + (slot >> 1);
+			values = Arrays.copyOf(values, newCapacity);
+			if ( kinds != null ) {
+				kinds = Arrays.copyOf(kinds, newCapacity);
+			}
+			if ( prims != null ) {
+				prims = Arrays.copyOf(prims, newCapacity);
+			}
+		}
+		modCount++;
+		return slot;
+	}
+
+	static Object box(byte kind, long bits) {
+		switch ( kind ) {
+			case INT:
+				return Integer.valueOf((int) bits);
+			case LONG:
+				return Long.valueOf(bits);
+			case DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(bits));
+			case FLOAT:
+				return Float.valueOf(Float.intBitsToFloat((int) bits));
+			case SHORT:
+				return Short.valueOf((short) bits);
+			case BYTE:
+				return Byte.valueOf((byte) bits);
+			case CHAR:
+				return Character.valueOf((char) bits);
+			case BOOLEAN:
+				return Boolean.valueOf(bits != 0L);
+			default:
+				return isTag(kind) ? DataObjectType.forCode(kind - TAG).getTypeName() : null;
+		}
+	}
+
+	Object remove(Object key) {
+		int slot = indexOf(key);
+		if ( slot < 0 ) {
+			return null;
+		}
+		return removeAt(slot);
+	}
+
+	Object removeAt(int slot) {
+		checkWritable();
+		Object old = valueAt(slot);
+		int size = shape.size();
+		int tail = size - slot - 1;
+		if ( tail > 0 ) {
+			System.arraycopy(values, slot + 1, values, slot, tail);
+			if ( kinds != null ) {
+				System.arraycopy(kinds, slot + 1, kinds, slot, tail);
+			}
+			if ( prims != null ) {
+				System.arraycopy(prims, slot + 1, prims, slot, tail);
+			}
+		}
+		values[size - 1] = null;
+		if ( kinds != null ) {
+			kinds[size - 1] = REF;
+		}
+		shape = shape.withoutSlot(slot);
+		modCount++;
+		return old;
+	}
+
+	//keeps the value arrays so a cleared object can be refilled without reallocating
+	void clear() {
+		checkWritable();
+		int size = shape.size();
+		Arrays.fill(values, 0, size, null);
+		if ( kinds != null ) {
+			Arrays.fill(kinds, 0, size, REF);
+		}
+		shape = DataObjectShape.ROOT;
+		modCount++;
+	}
+
+	CompactDataObjectStore copy() {
+		int size = shape.size();
+		CompactDataObjectStore copy = new CompactDataObjectStore(Math.max(size, INITIAL_CAPACITY));
+		System.arraycopy(values, 0, copy.values, 0, size);
+		if ( kinds != null ) {
+			copy.kinds = Arrays.copyOf(kinds, copy.values.length);
+		}
+		if ( prims != null ) {
+			copy.prims = Arrays.copyOf(prims, copy.values.length);
+		}
+		copy.shape = shape.copyForStore();
+		return copy;
+	}
+
+	/**
+	 * Drops the spare capacity and refuses any write from now on, the lazily boxed
+	 * values of valueAt are still cached but a box is immutable, so readers on other
+	 * threads may race on that harmlessly.
+	 */
+	void makeReadOnly() {
+		int capacity = Math.max(shape.size(), 1);
+		if ( values.length > capacity ) {
+			values = Arrays.copyOf(values, capacity);
+			if ( kinds != null ) {
+				kinds = Arrays.copyOf(kinds, capacity);
+			}
+			if ( prims != null ) {
+				prims = Arrays.copyOf(prims, capacity);
+			}
+		}
+		readOnly = true;
+	}
+
+	boolean isReadOnly() {
+		return readOnly;
+	}
+
+	private void checkWritable() {
+		if ( readOnly ) {
+			throw new UnsupportedOperationException("DataObject is frozen");
+		}
+	}
+
+	Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new SlotIterator<Map.Entry<String, Object>>() {
+					Map.Entry<String, Object> valueAt(int slot) {
+						return new SlotEntry(slot);
+					}
+				};
+			}
+			public int size() {
+				return shape.size();
+			}
+			public boolean contains(Object o) {
+				if ( !(o instanceof Map.Entry) ) {
+					return false;
+				}
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				int slot = indexOf(e.getKey());
+				if ( slot < 0 ) {
+					return false;
+				}
+				Object v = valueAt(slot);
+				return v == null ? e.getValue() == null : v.equals(e.getValue());
+			}
+			public void clear() {
+				CompactDataObjectStore.this.clear();
+			}
+		};
+	}
+
+	Set<String> keySet() {
+		return new AbstractSet<String>() {
+			public Iterator<String> iterator() {
+				return new SlotIterator<String>() {
+					String valueAt(int slot) {
+						return shape.keyAt(slot);
+					}
+				};
+			}
+			public int size() {
+				return shape.size();
+			}
+			public boolean contains(Object o) {
+				return indexOf(o) >= 0;
+			}
+			public boolean remove(Object o) {
+				int slot = indexOf(o);
+				if ( slot < 0 ) {
+					return false;
+				}
+				removeAt(slot);
+				return true;
+			}
+			public void clear() {
+				CompactDataObjectStore.this.clear();
+			}
+		};
+	}
+
+	Collection<Object> values() {
+		return new AbstractCollection<Object>() {
+			public Iterator<Object> iterator() {
+				return new SlotIterator<Object>() {
+					Object valueAt(int slot) {
+						return CompactDataObjectStore.this.valueAt(slot);
+					}
+				};
+			}
+			public int size() {
+				return shape.size();
+			}
+			public boolean contains(Object o) {
+				return containsValue(o);
+			}
+			public void clear() {
+				CompactDataObjectStore.this.clear();
+			}
+		};
+	}
+
+	private abstract class SlotIterator<E> implements Iterator<E> {
+		int next = 0;
+		int last = -1;
+		int expectedModCount = modCount;
+
+		abstract E valueAt(int slot);
+
+		public boolean hasNext() {
+			return next < shape.size();
+		}
+
+		public E next() {
+			if ( modCount != expectedModCount ) {
+				throw new ConcurrentModificationException();
+			}
+			if ( next >= shape.size() ) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return valueAt(last);
+		}
+
+		public void remove() {
+			if ( last < 0 ) {
+				throw new IllegalStateException();
+			}
+			if ( modCount != expectedModCount ) {
+				throw new ConcurrentModificationException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	private final class SlotEntry implements Map.Entry<String, Object> {
+		private final int slot;
+
+		SlotEntry(int slot) {
+			this.slot = slot;
+		}
+
+		public String getKey() {
+			return shape.keyAt(slot);
+		}
+
+		public Object getValue() {
+			return valueAt(slot);
+		}
+
+		public Object setValue(Object value) {
+			return setValueAt(slot, value);
+		}
+
+		public boolean equals(Object o) {
+			if ( !(o instanceof Map.Entry) ) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object v = getValue();
+			return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+
+		public int hashCode() {
+			Object v = getValue();
+			return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
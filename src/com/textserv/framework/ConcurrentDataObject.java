@@ -0,0 +1,685 @@
+package com.textserv.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A DataObject for state that many threads read and update, such as a session,
+ * without synchronizing on it.  It has the typed getters and setters of DataObject,
+ * reads take no lock and each field is updated on its own by compare and set, so
+ * threads writing different fields do not contend.  incrementLong, compareAndSetString
+ * and computeIfAbsentDataObject are atomic.
+ * <p>
+ * Nested objects are ConcurrentDataObjects too.  Lists, IntLists and the other
+ * primitive lists included, are stored read only, with any DataObjects in them
+ * frozen (see DataObject.freeze()), so a list is replaced as a whole rather than
+ * changed in place.  Fields keep the order they were first set in, as in a DataObject.  toDataObject() takes a plain DataObject copy, for encoding
+ * or for anything that needs the full DataObject api.
+ */
+public class ConcurrentDataObject {
+
+	//value of a slot that has been removed, the slot is then dropped from the map and never reused
+	private static final Object REMOVED = new Object();
+
+	private final ConcurrentHashMap<String, Slot> slots;
+	private final AtomicLong insertions = new AtomicLong();
+
+	public ConcurrentDataObject() {
+		slots = new ConcurrentHashMap<String, Slot>();
+	}
+
+	/**
+	 * A concurrent copy of dataObject, nested DataObjects become ConcurrentDataObjects.
+	 */
+	public ConcurrentDataObject(DataObject dataObject) throws DataObjectException {
+		slots = new ConcurrentHashMap<String, Slot>(Math.max(16, dataObject.size() * 2));
+		//frozen first, so lists, dates and the objects in lists are already safe to share
+		for ( Map.Entry<String, Object> entry : dataObject.freeze().entrySet() ) {
+			setObject(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static final class Slot extends AtomicReference<Object> {
+		private static final long serialVersionUID = 1L;
+		//when the key was added, gives the field order
+		final long order;
+
+		Slot(Object value, long order) {
+			super(value);
+			this.order = order;
+		}
+	}
+
+	// Raw slot access, every field read and write goes through these
+
+	private Object rawGet(String key) {
+		Slot slot = slots.get(key);
+		if ( slot == null ) {
+			return null;
+		}
+		Object value = slot.get();
+		return value == REMOVED ? null : value;
+	}
+
+	private Object rawPut(String key, Object value) {
+		if ( value == null ) {
+			return rawRemove(key);
+		}
+		while ( true ) {
+			Slot slot = slots.get(key);
+			if ( slot == null ) {
+				if ( slots.putIfAbsent(key, new Slot(value, insertions.getAndIncrement())) == null ) {
+					return null;
+				}
+				continue;
+			}
+			Object current = slot.get();
+			if ( current == REMOVED ) {
+				//a remove is half way through, finish it for them
+				slots.remove(key, slot);
+			} else if ( slot.compareAndSet(current, value) ) {
+				return current;
+			}
+		}
+	}
+
+	private Object rawRemove(String key) {
+		while ( true ) {
+			Slot slot = slots.get(key);
+			if ( slot == null ) {
+				return null;
+			}
+			Object current = slot.get();
+			if ( current == REMOVED ) {
+				slots.remove(key, slot);
+				return null;
+			}
+			if ( slot.compareAndSet(current, REMOVED) ) {
+				slots.remove(key, slot);
+				return current;
+			}
+		}
+	}
+
+	//the value already at key, or null when value was added
+	private Object rawPutIfAbsent(String key, Object value) {
+		while ( true ) {
+			Slot slot = slots.get(key);
+			if ( slot == null ) {
+				if ( slots.putIfAbsent(key, new Slot(value, insertions.getAndIncrement())) == null ) {
+					return null;
+				}
+				continue;
+			}
+			Object current = slot.get();
+			if ( current != REMOVED ) {
+				return current;
+			}
+			slots.remove(key, slot);
+		}
+	}
+
+	//replaces the value at key when it equals expected, expected null means no value
+	private boolean rawCompareAndSet(String key, Object expected, Object value) {
+		if ( expected == null ) {
+			return value == null ? !containsKey(key) : rawPutIfAbsent(key, value) == null;
+		}
+		while ( true ) {
+			Slot slot = slots.get(key);
+			if ( slot == null ) {
+				return false;
+			}
+			Object current = slot.get();
+			if ( current == REMOVED ) {
+				slots.remove(key, slot);
+				return false;
+			}
+			if ( !expected.equals(current) ) {
+				return false;
+			}
+			if ( slot.compareAndSet(current, value == null ? REMOVED : value) ) {
+				if ( value == null ) {
+					slots.remove(key, slot);
+				}
+				return true;
+			}
+		}
+	}
+
+	// Atomic updates
+
+	/**
+	 * Adds delta to the long at key (0 when there is none) and returns the new value.
+	 */
+	public long incrementLong(String key, long delta) throws DataObjectException {
+		while ( true ) {
+			Object current = rawGet(key);
+			long value = (current == null ? 0L : toLong(current)) + delta;
+			if ( current == null ? rawPutIfAbsent(key, Long.valueOf(value)) == null : replaceIdentical(key, current, Long.valueOf(value)) ) {
+				return value;
+			}
+		}
+	}
+
+	public long incrementLong(String key) throws DataObjectException {
+		return incrementLong(key, 1L);
+	}
+
+	//compare and set on the very object read, for values whose equal boxes must not be confused
+	private boolean replaceIdentical(String key, Object current, Object value) {
+		Slot slot = slots.get(key);
+		return slot != null && slot.compareAndSet(current, value);
+	}
+
+	/**
+	 * Sets the String at key to value if it is currently expected, null expected means
+	 * the field is not set and a null value removes the field.
+	 */
+	public boolean compareAndSetString(String key, String expected, String value) {
+		return rawCompareAndSet(key, expected, value);
+	}
+
+	/**
+	 * The nested object at key, added (empty) first if there is none.  Every thread
+	 * gets the same object back.
+	 */
+	public ConcurrentDataObject computeIfAbsentDataObject(String key) throws DataObjectException {
+		Object current = rawGet(key);
+		if ( current == null ) {
+			ConcurrentDataObject created = new ConcurrentDataObject();
+			current = rawPutIfAbsent(key, created);
+			if ( current == null ) {
+				return created;
+			}
+		}
+		if ( !(current instanceof ConcurrentDataObject) ) {
+			throw new DataObjectException(key + " is a " + current.getClass().getName() + ", not a DataObject");
+		}
+		return (ConcurrentDataObject) current;
+	}
+
+	// Accessors
+
+	public Object getObject(String key) {
+		Object value = rawGet(key);
+		return value instanceof Date ? ((Date) value).clone() : value;
+	}
+
+	public String getString(String key) throws DataObjectException {
+		try {
+			Object value = rawGet(key);
+			if ( value instanceof BinaryValue ) {
+				return value.toString();
+			}
+			return (String) value;
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public boolean getBoolean(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Boolean ) {
+				return (Boolean) object;
+			} else {
+				return Boolean.valueOf(object.toString()).booleanValue();
+			}
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	public int getInt(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Integer ) {
+				return (Integer) object;
+			} else {
+				return Integer.parseInt(object.toString());
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public long getLong(String key) throws DataObjectException {
+		return toLong(rawGet(key));
+	}
+
+	private static long toLong(Object object) throws DataObjectException {
+		try {
+			if ( object instanceof Long || object instanceof Integer || object instanceof Short || object instanceof Byte ) {
+				return ((Number) object).longValue();
+			} else {
+				return Long.parseLong(object.toString());
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public double getDouble(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object == null ) {
+				return Double.NaN;
+			} else if ( object instanceof Double ) {
+				return (Double) object;
+			} else {
+				String stringValue = object.toString();
+				if ( "NAN".equals(stringValue) ) {
+					return Double.NaN;
+				}
+				return StoredStringFormat.forThread().parseDouble(stringValue);
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public float getFloat(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Float ) {
+				return (Float) object;
+			} else {
+				return Float.valueOf(object.toString()).floatValue();
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public short getShort(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Short ) {
+				return (Short) object;
+			} else {
+				return Short.valueOf(object.toString()).shortValue();
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public char getChar(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Character ) {
+				return (Character) object;
+			} else {
+				return object.toString().charAt(0);
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	public byte getByte(String key) throws DataObjectException {
+		try {
+			Object object = rawGet(key);
+			if ( object instanceof Byte ) {
+				return (Byte) object;
+			} else {
+				return Byte.valueOf(object.toString()).byteValue();
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * The bytes at key, null if there are none.  Base64 text is decoded on each call.
+	 */
+	public BinaryValue getBinary(String key) throws DataObjectException {
+		Object value = rawGet(key);
+		if ( value == null || value instanceof BinaryValue ) {
+			return (BinaryValue) value;
+		} else if ( value instanceof String ) {
+			return BinaryValue.fromBase64((String) value);
+		}
+		throw new DataObjectException(key + " is a " + value.getClass().getName() + ", not binary");
+	}
+
+	public Date getDate(String key) throws DataObjectException {
+		Object object = rawGet(key);
+		if ( object == null ) {
+			return null;
+		} else if ( object instanceof Date ) {
+			return (Date) ((Date) object).clone();
+		}
+		Date date = DataObjectDateParsers.parse(object.toString());
+		if ( date == null ) {
+			throw new DataObjectException("Unparseable date: \"" + object + "\"");
+		}
+		return date;
+	}
+
+	public ConcurrentDataObject getDataObject(String key) throws DataObjectException {
+		try {
+			return (ConcurrentDataObject) rawGet(key);
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * Read only, set a new list to change the field.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getStringList(String key) throws DataObjectException {
+		try {
+			List<String> value = (List<String>) rawGet(key);
+			return value == null ? Collections.<String>emptyList() : value;
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * Read only and the DataObjects in it are frozen, set a new list to change the field.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<DataObject> getDataObjectList(String key) throws DataObjectException {
+		try {
+			List<DataObject> value = (List<DataObject>) rawGet(key);
+			return value == null ? Collections.<DataObject>emptyList() : value;
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * A writable copy of the list at key, an empty list when there is none.
+	 */
+	public List<Integer> getIntegerList(String key) throws DataObjectException {
+		IntList value = getIntList(key);
+		return value == null ? new ArrayList<Integer>() : value.copy();
+	}
+
+	/**
+	 * Read only, null if there is none.  A list of strings (as lists are once decoded)
+	 * is parsed on each call.
+	 */
+	public IntList getIntList(String key) throws DataObjectException {
+		return primitiveList(key, IntList.class);
+	}
+
+	/**
+	 * Read only, null if there is none, parsed like getIntList.
+	 */
+	public LongList getLongList(String key) throws DataObjectException {
+		return primitiveList(key, LongList.class);
+	}
+
+	/**
+	 * Read only, null if there is none, parsed like getIntList.
+	 */
+	public DoubleList getDoubleList(String key) throws DataObjectException {
+		return primitiveList(key, DoubleList.class);
+	}
+
+	private <L extends PrimitiveList<?>> L primitiveList(String key, Class<L> type) throws DataObjectException {
+		Object value = rawGet(key);
+		if ( value == null || type.isInstance(value) ) {
+			return type.cast(value);
+		}
+		if ( !(value instanceof List) ) {
+			throw new DataObjectException(key + " is a " + value.getClass().getName() + ", not a list");
+		}
+		PrimitiveList<?> list;
+		try {
+			if ( type == IntList.class ) {
+				list = IntList.from((List<?>) value);
+			} else if ( type == LongList.class ) {
+				list = LongList.from((List<?>) value);
+			} else {
+				list = DoubleList.from((List<?>) value);
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+		list.makeReadOnly();
+		return type.cast(list);
+	}
+
+	// Mutators, a null value removes the field as it does in a DataObject
+
+	public void setString(String key, String value) {
+		rawPut(key, value);
+	}
+
+	public void setBoolean(String key, boolean value) {
+		rawPut(key, Boolean.valueOf(value));
+	}
+
+	public void setInt(String key, int value) {
+		rawPut(key, Integer.valueOf(value));
+	}
+
+	public void setLong(String key, long value) {
+		rawPut(key, Long.valueOf(value));
+	}
+
+	public void setDouble(String key, double value) {
+		rawPut(key, Double.valueOf(value));
+	}
+
+	public void setFloat(String key, float value) {
+		rawPut(key, Float.valueOf(value));
+	}
+
+	public void setShort(String key, short value) {
+		rawPut(key, Short.valueOf(value));
+	}
+
+	public void setChar(String key, char value) {
+		rawPut(key, Character.valueOf(value));
+	}
+
+	public void setByte(String key, byte value) {
+		rawPut(key, Byte.valueOf(value));
+	}
+
+	public void setDate(String key, Date value) {
+		rawPut(key, value == null ? null : value.clone());
+	}
+
+	public void setBinary(String key, BinaryValue value) {
+		rawPut(key, value);
+	}
+
+	/**
+	 * Stores a copy of value.
+	 */
+	public void setBinary(String key, byte[] value) {
+		rawPut(key, value == null ? null : new BinaryValue(value));
+	}
+
+	/**
+	 * Stores a concurrent copy of value.
+	 */
+	public void setDataObject(String key, DataObject value) throws DataObjectException {
+		rawPut(key, value == null ? null : new ConcurrentDataObject(value));
+	}
+
+	public void setDataObject(String key, ConcurrentDataObject value) {
+		rawPut(key, value);
+	}
+
+	public void setStringList(String key, List<String> value) {
+		rawPut(key, value == null ? null : Collections.unmodifiableList(new ArrayList<String>(value)));
+	}
+
+	/**
+	 * Stores a read only IntList copy of value.
+	 */
+	public void setIntegerList(String key, List<Integer> value) {
+		if ( value == null ) {
+			rawRemove(key);
+			return;
+		}
+		IntList list = value instanceof IntList ? ((IntList) value).copy() : IntList.from(value);
+		list.makeReadOnly();
+		rawPut(key, list);
+	}
+
+	/**
+	 * Stores a read only copy of value, the same goes for the other primitive lists.
+	 */
+	public void setIntList(String key, IntList value) {
+		rawPut(key, value == null ? null : readOnlyCopy(value));
+	}
+
+	public void setLongList(String key, LongList value) {
+		rawPut(key, value == null ? null : readOnlyCopy(value));
+	}
+
+	public void setDoubleList(String key, DoubleList value) {
+		rawPut(key, value == null ? null : readOnlyCopy(value));
+	}
+
+	/**
+	 * Stores a read only list of frozen copies of the DataObjects in value.
+	 */
+	public void setDataObjectList(String key, List<DataObject> value) throws DataObjectException {
+		rawPut(key, value == null ? null : frozenList(value));
+	}
+
+	/**
+	 * Stores value the way the typed setter for its type would.
+	 */
+	public void setObject(String key, Object value) throws DataObjectException {
+		if ( value instanceof DataObject ) {
+			setDataObject(key, (DataObject) value);
+		} else if ( value instanceof PrimitiveList ) {
+			rawPut(key, readOnlyCopy((PrimitiveList<?>) value));
+		} else if ( value instanceof List ) {
+			rawPut(key, frozenList((List<?>) value));
+		} else if ( value instanceof Date ) {
+			setDate(key, (Date) value);
+		} else {
+			rawPut(key, value);
+		}
+	}
+
+	private static PrimitiveList<?> readOnlyCopy(PrimitiveList<?> list) {
+		PrimitiveList<?> copy = list.copy();
+		copy.makeReadOnly();
+		return copy;
+	}
+
+	private static List<Object> frozenList(List<?> list) throws DataObjectException {
+		Object[] elements = list.toArray();
+		for ( int i = 0; i < elements.length; i++ ) {
+			if ( elements[i] instanceof DataObject ) {
+				elements[i] = ((DataObject) elements[i]).freeze();
+			} else if ( elements[i] instanceof Date ) {
+				elements[i] = ((Date) elements[i]).clone();
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(elements));
+	}
+
+	public Object remove(String key) {
+		return rawRemove(key);
+	}
+
+	// Map like operations, sizes and key lists are a moment's view while other threads write
+
+	public boolean containsKey(String key) {
+		return rawGet(key) != null;
+	}
+
+	public boolean itemExists(String key) {
+		return containsKey(key);
+	}
+
+	public int size() {
+		return slots.size();
+	}
+
+	public boolean isEmpty() {
+		return slots.isEmpty();
+	}
+
+	public void clear() {
+		for ( String key : slots.keySet() ) {
+			rawRemove(key);
+		}
+	}
+
+	/**
+	 * The keys in the order they were first set.
+	 */
+	public List<String> keys() {
+		List<Map.Entry<String, Slot>> entries = orderedSlots();
+		List<String> keys = new ArrayList<String>(entries.size());
+		for ( Map.Entry<String, Slot> entry : entries ) {
+			keys.add(entry.getKey());
+		}
+		return keys;
+	}
+
+	private List<Map.Entry<String, Slot>> orderedSlots() {
+		List<Map.Entry<String, Slot>> entries = new ArrayList<Map.Entry<String, Slot>>(slots.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Slot>>() {
+			public int compare(Map.Entry<String, Slot> a, Map.Entry<String, Slot> b) {
+				return Long.compare(a.getValue().order, b.getValue().order);
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * A plain DataObject copy of the fields, in order.  Each field is read atomically,
+	 * the object as a whole is not, fields written meanwhile may or may not be in it.
+	 */
+	public DataObject toDataObject() {
+		DataObject copy = new DataObject();
+		for ( Map.Entry<String, Slot> entry : orderedSlots() ) {
+			Object value = entry.getValue().get();
+			if ( value != REMOVED ) {
+				copy.put(entry.getKey(), copyValue(value));
+			}
+		}
+		return copy;
+	}
+
+	private static Object copyValue(Object value) {
+		if ( value instanceof ConcurrentDataObject ) {
+			return ((ConcurrentDataObject) value).toDataObject();
+		} else if ( value instanceof PrimitiveList ) {
+			return ((PrimitiveList<?>) value).copy();
+		} else if ( value instanceof List ) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for ( Object element : list ) {
+				//frozen, a snapshot is a changeable copy that copies only what is touched
+				copy.add(element instanceof DataObject ? ((DataObject) element).createSnapshot() : element);
+			}
+			return copy;
+		} else if ( value instanceof Date ) {
+			return ((Date) value).clone();
+		}
+		return value;
+	}
+
+	public String toStringEncoded() throws DataObjectException {
+		return toDataObject().toStringEncoded();
+	}
+
+	public String toString() {
+		return toDataObject().toString();
+	}
+}
@@ -1,31 +1,40 @@
 package com.textserv.framework;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.binary.Hex;
 
+import com.textserv.framework.codecs.DataObjectDataInputOutputCodec;
 import com.textserv.framework.codecs.DataObjectJSONCodec;
 import com.textserv.framework.codecs.DataObjectXMLCodec;
 import com.textserv.framework.codecs.DataObjectXPath;
@@ -36,18 +45,43 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	private static final String NOT_A_NUMBER = "NAN";
 	public static final String DO_NAME = "txtsrv_Name";
 	public static final String DO_UNIQUEID = "txtsrv_UniqueId";
+	//the label stamp of a stamping object, written once in its place when stamps are not materialized
+	public static final String DO_LABEL_STAMP = "txtsrv_LabelStamp";
     
-	//formatters are not thread safe, c'mon guys can't you build this stuff right, so keep in a thread local storage variable to prevent threads stomping on each other
-	private static transient ThreadLocal<DecimalFormat> decimalFmttrHolder = new ThreadLocal<DecimalFormat>();
-    private static transient ThreadLocal<Map<String, DateFormat>> dateFmttrHolder = new ThreadLocal<Map<String, DateFormat>>();
     private transient long sequence;//useful for our disruptor queueing
     private transient boolean autoGenerateUniqueIdOnSerialization = false;
     private transient boolean generateMetaData = false;
-    private transient List<String> dirtyFields = null;
+    //keys set or removed since tracking started (or the last clearDirtyFields), in first change order
+    private transient Set<String> dirtyFields = null;
     private transient boolean trackDirtyFields = false;
     private transient HashMap<String, Object> transientCache = null;
     private transient boolean labelStampObjects = false;
     private transient DataObject labelStamp = null;
+    //stamp given to this object by the object it was set in, fields missing here are looked up in it
+    private transient DataObject inheritedStamp = null;
+    
+    private transient CompactDataObjectStore compactStore = null;
+    //keys whose container values are shared with a snapshot, copied on first access
+    private transient Set<String> sharedKeys = null;
+    //hashCode() of the fields, only trusted while hashValid
+    private transient int cachedHash;
+    private transient boolean hashValid = false;
+    //MD5 of the canonical form of the fields without the unique id, null when it has to be recomputed
+    private transient byte[] cachedDigest = null;
+    //objects whose cached hash or digest was computed from this one's, told when it changes
+    private transient DataObject cacheDependent = null;
+    private transient Set<DataObject> moreCacheDependents = null;
+    //typed lists parsed from lists stored as strings, by key, each valid while its source is the stored value
+    private transient HashMap<String, ParsedList> parsedLists = null;
+    //set, last of all, by freeze(), the object can then no longer change
+    private transient volatile FrozenForms frozen = null;
+    //pool this object was acquired from, its nested objects and lists come from it too
+    private transient DataObjectPool pool = null;
+    //true while the object waits in its pool to be handed out again
+    private transient boolean pooled = false;
+    private static volatile boolean compactStorageByDefault = false;
+    private static volatile int parallelDecodeThreshold = Integer.MAX_VALUE;
+    private static volatile boolean materializeLabelStamps = true;
     
     private boolean store_as_strings = false;
 	private boolean immutable = false;
@@ -57,16 +91,87 @@ public class DataObject extends LinkedHashMap<String, Object> {
 //			"#################0.00000000");
 
 	public DataObject() {
+		if ( compactStorageByDefault ) {
+			compactStore = new CompactDataObjectStore();
+		}
 	}
 
 	public DataObject(String name) {
+		this();
 		setName(name);
 	}
 
 	public DataObject(String keyName, Object value) {
+		this();
 		put(keyName, value);
 	}
 
+	/**
+	 * Selects the storage used by DataObjects created from now on.  Compact storage
+	 * keeps keys and values in parallel arrays instead of LinkedHashMap entry nodes,
+	 * which saves a lot of heap when many small DataObjects are alive.
+	 */
+	public static void setCompactStorageByDefault(boolean compact) {
+		compactStorageByDefault = compact;
+	}
+
+	public static boolean isCompactStorageByDefault() {
+		return compactStorageByDefault;
+	}
+
+	/**
+	 * Encoded DataObject lists (see setStringEncodedDataObjectList) with at least this
+	 * many elements are decoded in parallel on the common ForkJoinPool.  Off (Integer.MAX_VALUE) by default.
+	 */
+	public static void setParallelDecodeThreshold(int size) {
+		parallelDecodeThreshold = size;
+	}
+
+	public static int getParallelDecodeThreshold() {
+		return parallelDecodeThreshold;
+	}
+
+	/**
+	 * How the codecs write inherited label stamps (see setLabelStampObjects).  When true,
+	 * the default, every stamped object is written with the stamp fields it does not have
+	 * itself, after its own fields, as if they had been copied in last.  When false a stamping object writes its
+	 * stamp once, as its DO_LABEL_STAMP field, and the objects it stamped are written
+	 * without it, decoding stamps them again.
+	 */
+	public static void setMaterializeLabelStamps(boolean materialize) {
+		materializeLabelStamps = materialize;
+	}
+
+	public static boolean isMaterializeLabelStamps() {
+		return materializeLabelStamps;
+	}
+
+	/**
+	 * Switches this DataObject between LinkedHashMap and compact storage, keeping
+	 * its current contents and their order.
+	 */
+	public void setCompactStorage(boolean compact) {
+		checkNotFrozen();
+		if ( compact && compactStore == null ) {
+			CompactDataObjectStore store = new CompactDataObjectStore(Math.max(super.size(), 8));
+			for ( Map.Entry<String, Object> entry : super.entrySet() ) {
+				store.put(entry.getKey(), entry.getValue());
+			}
+			super.clear();
+			compactStore = store;
+		} else if ( !compact && compactStore != null ) {
+			CompactDataObjectStore store = compactStore;
+			compactStore = null;
+			for ( int i = 0; i < store.size(); i++ ) {
+				super.put(store.keyAt(i), store.valueAt(i));
+			}
+		}
+	}
+
+	public boolean isCompactStorage() {
+		return compactStore != null;
+	}
+
 	public Map<String, Object> getTransientCache() {
 		if ( transientCache == null ) {
 			transientCache = new HashMap<String, Object>();
@@ -81,6 +186,32 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	public Object getTransient( String name ) {
 		return getTransientCache().get(name);
 	}
+
+	//slot holding an unboxed value of the given kind, or -1 so the caller falls back to the boxed path
+	private int primitiveSlot(String key, byte kind) {
+		return primitiveSlot(key, kind, kind);
+	}
+
+	private int primitiveSlot(String key, byte kind, byte parsedKind) {
+		if ( compactStore != null ) {
+			int slot = compactStore.indexOf(key);
+			if ( slot >= 0 && (compactStore.kindAt(slot) == kind || compactStore.kindAt(slot) == parsedKind) ) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	//keeps what the String at key parsed to next to it, so the next read does not parse again
+	private void cacheParsed(String key, Object text, byte parsedKind, long bits) {
+		//a frozen object is read by other threads, so it is never written to
+		if ( compactStore != null && frozen == null && text instanceof String ) {
+			int slot = compactStore.indexOf(key);
+			if ( slot >= 0 && compactStore.kindAt(slot) == CompactDataObjectStore.REF && compactStore.valueAt(slot) == text ) {
+				compactStore.cacheParsed(slot, parsedKind, bits);
+			}
+		}
+	}
 	
 	public static DataObject fromXMLFile( String fileName ) throws DataObjectException {
     	DataObject returnDO = null;
@@ -116,45 +247,96 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		newObj.fromStringEncoded(jsonString);
 		return newObj;
 	}
+
+	public static DataObject fromJsonFile( String fileName ) throws DataObjectException {
+		DataObject newObj = new DataObject();
+		newObj.fromFileAsJson(fileName);
+		return newObj;
+	}
 	
+	//UTF-8, the encoding fromFileAsJson reads
 	public void toFileAsJson(String filename, boolean pretty) throws DataObjectException {
-		String asString = toStringEncoded(pretty);
-		
-        BufferedWriter writer;
         try { 
-        	writer = new BufferedWriter( new FileWriter(filename) );
-        	writer.write( asString );
+        	//the encoder buffers, no BufferedWriter needed
+        	Writer writer = new OutputStreamWriter(new FileOutputStream(filename), "UTF-8");
+        	toStringEncoded(writer, pretty);
         	writer.close();
         } catch(IOException e) {
         	throw new DataObjectException(e);
         }
 	}
 
+	/**
+	 * Reads the UTF-8 JSON file filename into this object, straight from the file's bytes,
+	 * see DataObjectJSONCodec.fromJSONFile.
+	 */
 	public void fromFileAsJson(String filename) throws DataObjectException {
-		
-        try { 
-        	BufferedReader reader = new BufferedReader( new FileReader (filename) );
-            String         line = null;
-            StringBuilder  stringBuilder = new StringBuilder();
-            String         ls = System.getProperty("line.separator");
-            while( ( line = reader.readLine() ) != null ) {
-                stringBuilder.append( line );
-                stringBuilder.append( ls );
-            }
-
-            fromStringEncoded(stringBuilder.toString());      
-        } catch(IOException e) {
-        	throw new DataObjectException(e);
-        }
+		clear();
+		DataObjectJSONCodec.fromJSONFile(new File(filename), this);
 	}
 
-	//dump to our efficient string encoded format
+	//dump to our efficient string encoded format, a frozen object is only encoded once
 	public String toStringEncoded(boolean pretty) throws DataObjectException {
+		FrozenForms forms = frozen;
+		if ( forms != null ) {
+			String json = pretty ? forms.prettyJson : forms.json;
+			if ( json == null ) {
+				json = DataObjectJSONCodec.toJSONString(this, pretty);
+				if ( pretty ) {
+					forms.prettyJson = json;
+				} else {
+					forms.json = json;
+				}
+			}
+			return json;
+		}
     	if ( autoGenerateUniqueIdOnSerialization ) {
     		generateMD5Digest();
     	}
 		return DataObjectJSONCodec.toJSONString(this, pretty);
 	}
+
+	/**
+	 * Writes the string encoding straight to out, without building it as a String first
+	 * unless this object is frozen.  Does not close out.
+	 */
+	public void toStringEncoded(Writer out, boolean pretty) throws DataObjectException {
+		if ( frozen != null ) {
+			try {
+				out.write(toStringEncoded(pretty));
+			} catch ( IOException e ) {
+				throw new DataObjectException(e);
+			}
+			return;
+		}
+    	if ( autoGenerateUniqueIdOnSerialization ) {
+    		generateMD5Digest();
+    	}
+		DataObjectJSONCodec.writeJSONString(this, out, pretty);
+	}
+
+	/**
+	 * This object in the binary format of DataObjectDataInputOutputCodec, a frozen
+	 * object is only encoded once.
+	 */
+	public byte[] toBinaryEncoded() throws DataObjectException {
+		FrozenForms forms = frozen;
+		byte[] encoded = forms != null ? forms.binary : null;
+		if ( encoded == null ) {
+			if ( forms == null && autoGenerateUniqueIdOnSerialization ) {
+				generateMD5Digest();
+			}
+			try {
+				encoded = DataObjectDataInputOutputCodec.encodeToBytes(this);
+			} catch (IOException e) {
+				throw new DataObjectException(e);
+			}
+			if ( forms != null ) {
+				forms.binary = encoded;
+			}
+		}
+		return encoded;
+	}
 	
 	//create from our string encoded format
 	public void fromStringEncoded(String encodedString) throws DataObjectException {
@@ -218,8 +400,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public boolean getBoolean(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.BOOLEAN);
+		if ( slot >= 0 ) {
+			return compactStore.primAt(slot) != 0L;
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Boolean ) {
 				return (Boolean)object;
 			} else {
@@ -231,8 +417,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public byte getByte(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.BYTE);
+		if ( slot >= 0 ) {
+			return (byte) compactStore.primAt(slot);
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Byte ) {
 				return (Byte)object;
 			} else {
@@ -244,8 +434,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public char getChar(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.CHAR);
+		if ( slot >= 0 ) {
+			return (char) compactStore.primAt(slot);
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Character ) {
 				return (Character)object;
 			} else {
@@ -257,8 +451,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public double getDouble(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.DOUBLE, CompactDataObjectStore.STRING_WITH_DOUBLE);
+		if ( slot >= 0 ) {
+			return Double.longBitsToDouble(compactStore.primAt(slot));
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if (object == null )
 				 return Double.NaN; 
 			else if ( object instanceof Double ) {
@@ -268,7 +466,9 @@ public class DataObject extends LinkedHashMap<String, Object> {
 				if (NOT_A_NUMBER.equals(stringValue)) {
 					return Double.NaN;
 				}
-				return Double.valueOf(stringValue).doubleValue();
+				double value = StoredStringFormat.forThread().parseDouble(stringValue);
+				cacheParsed(key, object, CompactDataObjectStore.STRING_WITH_DOUBLE, Double.doubleToRawLongBits(value));
+				return value;
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -276,8 +476,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public float getFloat(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.FLOAT);
+		if ( slot >= 0 ) {
+			return Float.intBitsToFloat((int) compactStore.primAt(slot));
+		}
 		try {
-				Object object = super.get(key);
+				Object object = rawGet(key);
 				if ( object instanceof Float ) {
 					return (Float)object;
 				} else {
@@ -289,8 +493,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public int getInt(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.INT);
+		if ( slot >= 0 ) {
+			return (int) compactStore.primAt(slot);
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Integer ) {
 				return (Integer)object;
 			} else {
@@ -302,8 +510,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public long getLong(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.LONG);
+		if ( slot >= 0 ) {
+			return compactStore.primAt(slot);
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Long ) {
 				return (Long)object;
 			} else {
@@ -315,35 +527,35 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
     
     public Date getDate(String key) throws DataObjectException {
+        int slot = primitiveSlot(key, CompactDataObjectStore.STRING_WITH_DATE);
+        if ( slot >= 0 ) {
+        	return new Date(compactStore.primAt(slot));
+        }
         try {
-        	Object object = super.get(key);
+        	Object object = ownValue(key);
         	if(object != null) {
         		if ( object instanceof Date) {
         			return (Date)object;
         		} else {
-        			DateFormat dateFormater = getDateFormater();
-        			return dateFormater.parse((String)object.toString());
+        			Date date = parseDate(object.toString());
+        			cacheParsed(key, object, CompactDataObjectStore.STRING_WITH_DATE, date.getTime());
+        			return date;
         		}
             }
             return null;
-        } catch (ParseException e) {
-            return tryAlternativeDateParse(key);
+        } catch (DataObjectException e) {
+            throw e;
         } catch (Exception e) {
             throw new DataObjectException(e);
         }
     }
-    
-    private Date tryAlternativeDateParse(String key) throws DataObjectException {
-        try {
-        	Object value = super.get(key);
-        	if(value != null) {
-        		DateFormat dateFormater = getSecondaryDateFormater();
-            	return dateFormater.parse((String)value.toString());
-            }
-            return null;
-        } catch (Exception e) {
-            throw new DataObjectException(e);
-        }    	
+
+    private static Date parseDate(String text) throws DataObjectException {
+    	Date date = DataObjectDateParsers.parse(text);
+    	if ( date == null ) {
+    		throw new DataObjectException("Unparseable date: \"" + text + "\"");
+    	}
+    	return date;
     }
 
     /**
@@ -354,8 +566,9 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public List<DataObject> getDataObjectList(String key) throws DataObjectException {
 		try {
+			decodeEncodedList(key);
 			@SuppressWarnings("unchecked")
-			List<DataObject> value = (List<DataObject>) super.get(key);
+			List<DataObject> value = (List<DataObject>) ownValue(key);
 			if (value == null) {
 				value = Collections.emptyList();
 			}
@@ -368,44 +581,93 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public List<DataObject> getDataObjectList(String key, boolean createIfNotFound) throws DataObjectException {
 		try {
-			Object objValue = super.get(key);
-			if ( objValue instanceof StringEncodedDataObjectList) {
-				return toDataObjectList((StringEncodedDataObjectList)objValue);
-			} else {
-				@SuppressWarnings("unchecked")
-				List<DataObject> value = (List<DataObject>) super.get(key);
-				if (value == null) {
-					if ( createIfNotFound ) {
-						value = new ArrayList<DataObject>();
-						setDataObjectList(key, value);
-					} else {
-						value = Collections.emptyList();					
-					}
+			decodeEncodedList(key);
+			@SuppressWarnings("unchecked")
+			List<DataObject> value = (List<DataObject>) ownValue(key);
+			if (value == null) {
+				if ( createIfNotFound ) {
+					value = newList();
+					setDataObjectList(key, value);
+				} else {
+					value = Collections.emptyList();					
 				}
-				return value;
 			}
+			return value;
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}
 	}
 
-	private List<DataObject> toDataObjectList( StringEncodedDataObjectList objValue) throws DataObjectException {
-		List<DataObject> dataObjects = new ArrayList<DataObject>();
-		if ( objValue.encodedDataObjects != null ) {
-			for ( String encodedDataObject : objValue.encodedDataObjects ) {
-				DataObject newObj = new DataObject();
-				newObj.fromStringEncoded(encodedDataObject);
-				dataObjects.add(newObj);
+	//an encoded list is decoded the first time it is asked for and the decoded list is stored in its place
+	private void decodeEncodedList(String key) throws DataObjectException {
+		Object value = storedGet(key);
+		if ( value instanceof StringEncodedDataObjectList ) {
+			//the same objects in another form, so not a change and not dirty
+			invalidateCaches();
+			if ( sharedKeys != null ) {
+				sharedKeys.remove(key);
 			}
+			storeQuietly(key, ((StringEncodedDataObjectList) value).decode());
+		}
+	}
+
+	/**
+	 * Iterates the DataObject list at key without decoding all of it, an encoded list
+	 * (see setStringEncodedDataObjectList) is decoded one element at a time as the
+	 * iterator reaches it and is left encoded.  Empty if there is no such list.
+	 */
+	public Iterator<DataObject> getDataObjectListIterator(String key) throws DataObjectException {
+		Object value = rawGet(key);
+		if ( value instanceof StringEncodedDataObjectList ) {
+			List<String> encoded = ((StringEncodedDataObjectList) value).encodedDataObjects;
+			if ( encoded == null ) {
+				return Collections.<DataObject>emptyList().iterator();
+			}
+			final Iterator<String> elements = encoded.iterator();
+			return new Iterator<DataObject>() {
+				public boolean hasNext() {
+					return elements.hasNext();
+				}
+
+				public DataObject next() {
+					return decodeElement(elements.next());
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("remove");
+				}
+			};
 		}
-		return dataObjects;
+		return getDataObjectList(key).iterator();
+	}
+
+	private static DataObject decodeElement(String encodedDataObject) throws DataObjectException {
+		DataObject dataObject = new DataObject();
+		dataObject.fromStringEncoded(encodedDataObject);
+		return dataObject;
 	}
 
 	
+	/**
+	 * The list of strings at key, a new empty list if there is none.  A field holding an
+	 * IntList, LongList or DoubleList is turned into the list of their strings (the
+	 * equal list the codecs write), so what is added to the returned list is kept.
+	 */
 	public List<String> getStringList(String key) throws DataObjectException {
 		try {
+			Object raw = rawGet(key);
+			if ( raw instanceof PrimitiveList ) {
+				if ( frozen != null ) {
+					return asStrings((PrimitiveList<?>) raw);
+				}
+				//an equal value, so neither a change nor dirty
+				storeQuietly(key, asStrings((PrimitiveList<?>) raw));
+				if ( sharedKeys != null ) {
+					sharedKeys.remove(key);
+				}
+			}
 			@SuppressWarnings("unchecked")
-			List<String> value = (List<String>) super.get(key);
+			List<String> value = (List<String>) ownValue(key);
 			if (value == null) {
 				value = new ArrayList<String>();
 			}
@@ -416,47 +678,144 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	
-	@SuppressWarnings("unchecked")
 	public List<String> getStringList(String key, boolean createIfNotFound) throws DataObjectException {
 		if ( !createIfNotFound ) {
 			return getStringList(key);
 		}
 		try {
 			if ( !itemExists(key)) {
-				List<String> value = new ArrayList<String>();
+				List<String> value = newList();
 				put(key, value);
 				return value;
 			} else {
-				return (List<String>) super.get(key);
+				return getStringList(key);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}
 	}
 
-	
+	private static List<String> asStrings(PrimitiveList<?> list) {
+		List<String> strings = new ArrayList<String>(list.size());
+		for ( Object element : list ) {
+			strings.add(element.toString());
+		}
+		return strings;
+	}
+
+	/**
+	 * A writable copy of the list getIntList returns, an empty list when there is no
+	 * such field.  Changing it does not change the field.
+	 */
     public List<Integer> getIntegerList(String key) throws DataObjectException {
-        try {
-            @SuppressWarnings("unchecked")
-			List<String> raw = (List<String>) super.get(key);
-            List<Integer> value;
-            if (raw == null) {
-                value = Collections.emptyList();
-            } else {
-                value = new ArrayList<Integer>();
-                for (String intString : raw) {
-                    value.add(Integer.parseInt(intString));
-                }
-            }
-            return value;
-        } catch (Exception e) {
-            throw new DataObjectException(e);
-        }
+		Object raw = rawGet(key);
+		if ( raw == null ) {
+			return Collections.emptyList();
+		}
+		//copied straight from the stored list, the field is not handed out
+		return (raw instanceof IntList ? (IntList) raw : parsedList(key, raw, IntList.class)).copy();
     }
 
+	/**
+	 * The IntList at key, null if there is none.  A list set as an IntList is
+	 * returned as stored.  A list of strings (as setIntegerList wrote them before,
+	 * and as every list is once decoded) is parsed the first time and the parsed,
+	 * read only, IntList is returned until the field changes.
+	 */
+	public IntList getIntList(String key) throws DataObjectException {
+		Object raw = rawGet(key);
+		if ( raw == null || raw instanceof IntList ) {
+			return (IntList) ownValue(key);
+		}
+		return parsedList(key, raw, IntList.class);
+	}
+
+	/**
+	 * The LongList at key, null if there is none, parsed and kept like getIntList.
+	 */
+	public LongList getLongList(String key) throws DataObjectException {
+		Object raw = rawGet(key);
+		if ( raw == null || raw instanceof LongList ) {
+			return (LongList) ownValue(key);
+		}
+		return parsedList(key, raw, LongList.class);
+	}
+
+	/**
+	 * The DoubleList at key, null if there is none, parsed and kept like getIntList.
+	 */
+	public DoubleList getDoubleList(String key) throws DataObjectException {
+		Object raw = rawGet(key);
+		if ( raw == null || raw instanceof DoubleList ) {
+			return (DoubleList) ownValue(key);
+		}
+		return parsedList(key, raw, DoubleList.class);
+	}
+
+	private <L extends PrimitiveList<?>> L parsedList(String key, Object raw, Class<L> type) throws DataObjectException {
+		if ( parsedLists != null ) {
+			ParsedList parsed = parsedLists.get(key);
+			if ( parsed != null && parsed.isParsedFrom(raw) && type.isInstance(parsed.list) ) {
+				return type.cast(parsed.list);
+			}
+		}
+		if ( !(raw instanceof List) ) {
+			throw new DataObjectException(key + " is a " + raw.getClass().getName() + ", not a list");
+		}
+		PrimitiveList<?> list;
+		try {
+			List<?> source = (List<?>) raw;
+			if ( type == IntList.class ) {
+				list = IntList.from(source);
+			} else if ( type == LongList.class ) {
+				list = LongList.from(source);
+			} else {
+				list = DoubleList.from(source);
+			}
+		} catch (Exception e) {
+			throw new DataObjectException(e);
+		}
+		list.makeReadOnly();
+		if ( frozen != null ) {
+			//not memoized, the map is not safe for the reader threads of a frozen object
+			return type.cast(list);
+		}
+		if ( parsedLists == null ) {
+			parsedLists = new HashMap<String, ParsedList>();
+		}
+		parsedLists.put(key, new ParsedList((List<?>) raw, list));
+		return type.cast(list);
+	}
+
+	private static final class ParsedList {
+		final List<?> source;
+		final int sourceSize;
+		final PrimitiveList<?> list;
+
+		ParsedList(List<?> source, PrimitiveList<?> list) {
+			this.source = source;
+			this.sourceSize = source.size();
+			this.list = list;
+		}
+
+		boolean isParsedFrom(Object raw) {
+			return raw == source && source.size() == sourceSize;
+		}
+	}
+
+	private void forgetParsedList(Object key) {
+		if ( parsedLists != null ) {
+			parsedLists.remove(key);
+		}
+	}
+
 	public short getShort(String key) throws DataObjectException {
+		int slot = primitiveSlot(key, CompactDataObjectStore.SHORT);
+		if ( slot >= 0 ) {
+			return (short) compactStore.primAt(slot);
+		}
 		try {
-			Object object = super.get(key);
+			Object object = rawGet(key);
 			if ( object instanceof Short) {
 				return (Short)object;
 			}
@@ -468,9 +827,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	//return as a simple string or a json string for more complex types
 	public String getAsString( String key ) throws DataObjectException {
-		Object value = super.get(key);
+		Object value = rawGet(key);
 		if ( value instanceof String ) {
 			return (String)value;
+		} else if ( value instanceof BinaryValue ) {
+			//the base64 text, as the field was stored before it was binary
+			return value.toString();
 		} else {
 			return DataObjectJSONCodec.toJSONString(value);
 		}
@@ -478,12 +840,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setFromString( String key, String value ) throws DataObjectException {
 		if ( !value.startsWith("{") ) {
-			trackMetaData(key, "string");
-			super.put(key, value);
+			trackMetaData(key, DataObjectType.STRING);
+			rawPut(key, value);
 		} else {
 			try {
-				trackMetaData(key, "do");
-				super.put(key, DataObjectJSONCodec.fromJSONString(value));
+				trackMetaData(key, DataObjectType.DATA_OBJECT);
+				rawPut(key, DataObjectJSONCodec.fromJSONString(value));
 			} catch (Exception e) {
 				throw new DataObjectException(e);
 			}
@@ -496,7 +858,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public DataObject getDataObject(String key) throws DataObjectException {
 		try {
-			return (DataObject) super.get(key);
+			return (DataObject) ownValue(key);
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}
@@ -504,9 +866,9 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public DataObject getDataObject(String key, boolean createIfNeeded) throws DataObjectException {
 		try {
-			DataObject returnVal = (DataObject) super.get(key);
+			DataObject returnVal = (DataObject) ownValue(key);
 			if ( returnVal == null) {
-				returnVal = new DataObject();
+				returnVal = newChild();
 				setDataObject(key, returnVal);
 			}
 			return returnVal;
@@ -516,7 +878,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public Object getObject(Object key) {
-		return super.get(key);
+		return ownValue(key);
 	}
 
 	/**
@@ -524,7 +886,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	 */
 
 	public String getName() {
-		String name = (String) super.get(DO_NAME);
+		String name = (String) rawGet(DO_NAME);
 		return name == null ? "" : name;
 	}
 
@@ -534,7 +896,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public String getString(String key) throws DataObjectException {
 		try {
-			return (String) super.get(key);
+			Object value = rawGet(key);
+			if ( value instanceof BinaryValue ) {
+				//binary fields were stored as base64 Strings
+				return value.toString();
+			}
+			return (String) value;
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}
@@ -548,6 +915,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		return containsKey(key);
 	}
 
+	/**
+	 * Like containsKey, but only for this object's own fields, not those read from its
+	 * inherited stamp.
+	 */
+	public boolean containsOwnKey(String key) {
+		return storedContainsKey(key);
+	}
+
 	// Mutator methods for Java primitives
 
 	public void setUsingType( String key, String value, String type) throws DataObjectException {
@@ -570,12 +945,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		} else if (type.equals("short" )) {
 			setShort(key, Short.parseShort(value));
 		} else if (type.equals("date" )) {
-			DateFormat dateFormater = getDateFormater(); 
-			try {
-				setDate(key, dateFormater.parse(value));
-			} catch ( ParseException pe) {
-				throw new DataObjectException(pe);
-			}
+			setDate(key, value);
 		} else if (type.equals("datetime" )) {
 			setByte(key, Byte.parseByte(value));
 		} else if (type.equals("json" )) {
@@ -594,12 +964,26 @@ public class DataObject extends LinkedHashMap<String, Object> {
 			List<String> sList = Arrays.asList(value.split("\\|"));
 			setStringList(key, sList);
 		} else if (type.equals("iarray" )) {
-			List<Integer> iList = new ArrayList<Integer>();
+			IntList iList = new IntList();
 			String[] iValues = value.split("\\|");
 			for( String iValue : iValues ) {
-				iList.add(Integer.parseInt(iValue));
+				iList.addInt(Integer.parseInt(iValue));
 			}
 			setIntegerList(key, iList);
+		} else if (type.equals("larray" )) {
+			LongList lList = new LongList();
+			String[] lValues = value.split("\\|");
+			for( String lValue : lValues ) {
+				lList.addLong(Long.parseLong(lValue));
+			}
+			setLongList(key, lList);
+		} else if (type.equals("darray" )) {
+			DoubleList dList = new DoubleList();
+			String[] dValues = value.split("\\|");
+			for( String dValue : dValues ) {
+				dList.addDouble(Double.parseDouble(dValue));
+			}
+			setDoubleList(key, dList);
 		} else if (type.equals("farray" )) {
 			List<Float> fList = new ArrayList<Float>();
 			String[] fValues = value.split("\\|");
@@ -608,29 +992,24 @@ public class DataObject extends LinkedHashMap<String, Object> {
 			}
 			setFloatList(key, fList);
 		} else if (type.equals("dtarray" )) {
-			DateFormat dateFormater = getDateFormater(); 
-			try {
-				setDate(key, dateFormater.parse(value));
-				List<Date> dtList = new ArrayList<Date>();
-				String[] dtValues = value.split("\\|");
-				for( String dtValue : dtValues ) {
-					dtList.add(dateFormater.parse(dtValue));
-				}
-				setDateList(key, dtList);			
-			} catch ( ParseException pe) {
-				throw new DataObjectException(pe);
+			setDate(key, value);
+			List<Date> dtList = new ArrayList<Date>();
+			String[] dtValues = value.split("\\|");
+			for( String dtValue : dtValues ) {
+				dtList.add(parseDate(dtValue));
 			}
+			setDateList(key, dtList);
 		} else if (type.equals("shash" )) {
 		}
 	}
 
 	public void setBoolean(String key, Boolean value) throws DataObjectException {
 		try {
-			trackMetaData(key, "boolean");				
+			trackMetaData(key, DataObjectType.BOOLEAN);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);				
+				rawPut(key, value);				
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -639,11 +1018,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setBoolean(String key, boolean value) throws DataObjectException {
 		try {
-			trackMetaData(key, "boolean");				
+			trackMetaData(key, DataObjectType.BOOLEAN);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putBoolean(key, value);
 			} else {
-				super.put(key, new Boolean(value));				
+				rawPut(key, new Boolean(value));				
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -652,11 +1034,11 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setByte(String key, Byte value) throws DataObjectException {
 		try {
-			trackMetaData(key, "byte");				
+			trackMetaData(key, DataObjectType.BYTE);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -665,11 +1047,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setByte(String key, byte value) throws DataObjectException {
 		try {
-			trackMetaData(key, "byte");				
+			trackMetaData(key, DataObjectType.BYTE);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putByte(key, value);
 			} else {
-				super.put(key, new Byte(value));
+				rawPut(key, new Byte(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -685,11 +1070,11 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setChar(String key, Character value) throws DataObjectException {
 		try {
-			trackMetaData(key, "char");				
+			trackMetaData(key, DataObjectType.CHAR);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -698,11 +1083,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setChar(String key, char value) throws DataObjectException {
 		try {
-			trackMetaData(key, "char");				
+			trackMetaData(key, DataObjectType.CHAR);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putChar(key, value);
 			} else {
-				super.put(key, new Character(value));
+				rawPut(key, new Character(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -719,20 +1107,15 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setDouble(String key, Double value) throws DataObjectException {
 		try {
-			trackMetaData(key, "double");				
+			trackMetaData(key, DataObjectType.DOUBLE);				
 			if ( store_as_strings ) {
-				DecimalFormat dcmlFmttr = decimalFmttrHolder.get();
-				if ( dcmlFmttr == null ) {
-					dcmlFmttr = new DecimalFormat("#################0.00000000");
-					decimalFmttrHolder.set(dcmlFmttr);
-				}
 				if (Double.isNaN(value)) {
-					super.put(key, NOT_A_NUMBER);
+					rawPut(key, NOT_A_NUMBER);
 				} else {
-					super.put(key, dcmlFmttr.format(value));
+					rawPut(key, StoredStringFormat.forThread().formatDouble(value));
 				}
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -741,20 +1124,18 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setDouble(String key, double value) throws DataObjectException {
 		try {
-			trackMetaData(key, "double");				
+			trackMetaData(key, DataObjectType.DOUBLE);				
 			if ( store_as_strings ) {
-				DecimalFormat dcmlFmttr = decimalFmttrHolder.get();
-				if ( dcmlFmttr == null ) {
-					dcmlFmttr = new DecimalFormat("#################0.00000000");
-					decimalFmttrHolder.set(dcmlFmttr);
-				}
 				if (Double.isNaN(value)) {
-					super.put(key, NOT_A_NUMBER);
+					rawPut(key, NOT_A_NUMBER);
 				} else {
-					super.put(key, dcmlFmttr.format(value));
+					rawPut(key, StoredStringFormat.forThread().formatDouble(value));
 				}
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putDouble(key, value);
 			} else {
-				super.put(key, new Double(value));
+				rawPut(key, new Double(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -770,11 +1151,11 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setFloat(String key, Float value) throws DataObjectException {
 		try {
-			trackMetaData(key, "float");				
+			trackMetaData(key, DataObjectType.FLOAT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -783,11 +1164,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setFloat(String key, float value) throws DataObjectException {
 		try {
-			trackMetaData(key, "float");				
+			trackMetaData(key, DataObjectType.FLOAT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putFloat(key, value);
 			} else {
-				super.put(key, new Float(value));
+				rawPut(key, new Float(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -804,11 +1188,11 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setInt(String key, Integer value) throws DataObjectException {
 		try {
-			trackMetaData(key, "int");				
+			trackMetaData(key, DataObjectType.INT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -817,11 +1201,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setInt(String key, int value) throws DataObjectException {
 		try {
-			trackMetaData(key, "int");				
+			trackMetaData(key, DataObjectType.INT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putInt(key, value);
 			} else {
-				super.put(key, new Integer(value));
+				rawPut(key, new Integer(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -840,16 +1227,16 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 	
 	boolean isImmutable() {
-		return immutable;
+		return immutable || frozen != null;
 	}
 	
 	public void setLong(String key, Long value) throws DataObjectException {
 		try {
-			trackMetaData(key, "long");				
+			trackMetaData(key, DataObjectType.LONG);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -858,11 +1245,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	public void setLong(String key, long value) throws DataObjectException {
 		try {
-			trackMetaData(key, "long");				
+			trackMetaData(key, DataObjectType.LONG);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putLong(key, value);
 			} else {
-				super.put(key, new Long(value));
+				rawPut(key, new Long(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -879,11 +1269,11 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setShort(String key, Short value) throws DataObjectException {
 		try {
-			trackMetaData(key, "short");				
+			trackMetaData(key, DataObjectType.SHORT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
 			} else {
-				super.put(key, value);
+				rawPut(key, value);
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -892,11 +1282,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setShort(String key, short value) throws DataObjectException {
 		try {
-			trackMetaData(key, "short");				
+			trackMetaData(key, DataObjectType.SHORT);				
 			if ( store_as_strings ) {
-				super.put(key, String.valueOf(value));
+				rawPut(key, String.valueOf(value));
+			} else if ( compactStore != null ) {
+				fieldChanged(key);
+				compactStore.putShort(key, value);
 			} else {
-				super.put(key, new Short(value));
+				rawPut(key, new Short(value));
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -906,75 +1299,105 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	public void setShort(String key, short value, short defaultValue)
 			throws DataObjectException {
 		if (value != defaultValue) {
-			trackMetaData(key, "short");				
+			trackMetaData(key, DataObjectType.SHORT);				
 			setShort(key, value);
 		}
 	}
 
+	/**
+	 * Reads the stream to its end and stores the bytes as a BinaryValue, or as a
+	 * base64 String when store_as_strings is on.
+	 */
     public void setBinaryStream(String key, InputStream is) throws DataObjectException {
 		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 4);
-			byte[] raw = new byte[1024 * 4];
-			while (is.read(raw) != -1) {
-				out.write(raw);
-			}
-		String sb = new String(Base64.encodeBase64(out.toByteArray(), true));
-			
-//			StringBuilder sb = new StringBuilder(1024 * 4);
-//			byte[] raw = new byte[1024 * 4];
-//		int count = -1;
-//			StringBuilder temp = new StringBuilder(1024 * 4);
-//			while ((count = is.read(raw)) != -1) {
-//				byte[] converted = null;
-//				if (count < raw.length) {
-//					byte[] revised = new byte[count];
-//					System.arraycopy(raw, 0, revised, 0, count);
-//					converted = Base64.encodeBase64(revised, true);
-//				} else {
-//					converted = Base64.encodeBase64(raw, true);
-//				}
-//				sb.append(new String(converted));
-//			}
-			trackMetaData(key, "binary");				
-			setString(key, sb.toString());
-		} catch (Exception e) {
+			setBinary(key, BinaryValue.read(is));
+		} catch (IOException e) {
 			throw new DataObjectException(e);
 		}
 	}
-	
-	public InputStream getBinaryStream(String key) throws DataObjectException {
-		ByteArrayInputStream baos = null;
-		try {
-			String value = getString(key);
-			if (value != null) {
-				byte[] converted = Base64.decodeBase64(value.getBytes());
-				baos = new ByteArrayInputStream(converted);
+
+	/**
+	 * Stores value, or its base64 text when store_as_strings is on.
+	 */
+	public void setBinary(String key, BinaryValue value) throws DataObjectException {
+		if ( value != null ) {
+			trackMetaData(key, DataObjectType.BINARY);
+			if ( store_as_strings ) {
+				rawPut(key, value.toString());
+			} else {
+				setObject_inner(key, value);
 			}
-		} catch (Exception e) {
-			throw new DataObjectException(e);
+		} else {
+			rawRemove(key);
 		}
-		return baos;
 	}
 
-    
+	/**
+	 * Stores a copy of value.
+	 */
+	public void setBinary(String key, byte[] value) throws DataObjectException {
+		setBinary(key, value == null ? null : new BinaryValue(value));
+	}
+
+	/**
+	 * The bytes at key, null if there are none.  Bytes stored as base64 text (as
+	 * they are once decoded from JSON or XML) are decoded on each call.
+	 */
+	public BinaryValue getBinary(String key) throws DataObjectException {
+		Object value = rawGet(key);
+		if ( value == null || value instanceof BinaryValue ) {
+			return (BinaryValue) value;
+		} else if ( value instanceof String ) {
+			return BinaryValue.fromBase64((String) value);
+		}
+		throw new DataObjectException(key + " is a " + value.getClass().getName() + ", not binary");
+	}
+
+	/**
+	 * A stream over the bytes at key, null if there are none.  A BinaryValue is read
+	 * in place, nothing is copied.
+	 */
+	public InputStream getBinaryStream(String key) throws DataObjectException {
+		BinaryValue value = getBinary(key);
+		return value == null ? null : value.openStream();
+	}
+
+	/**
+	 * date the way store_as_strings stores it, "yyyy-MM-dd HH:mm:ss", which getDate
+	 * reads back.
+	 */
+	public static String formatStoredDate(Date date) {
+		return StoredStringFormat.forThread().formatDate(date);
+	}
+
 	public void setDate(String key, Date value) throws DataObjectException {
     	if ( value != null ) {
     		try {
-				trackMetaData(key, "date");				
+				trackMetaData(key, DataObjectType.DATE);				
 				if ( store_as_strings ) {
-					DateFormat dateFmttr = getDateFormater();
-					super.put(key, dateFmttr.format(value));
+					rawPut(key, StoredStringFormat.forThread().formatDate(value));
 				} else {
-					super.put(key, value);
+					rawPut(key, value);
 				}
     		} catch (Exception e) {
     			throw new DataObjectException(e);
     		}
     	} else {
-    		super.remove(key);				
+    		rawRemove(key);				
     	}
     }
 
+	/**
+	 * Sets a date given as text in any of the DataObjectDateParsers formats.
+	 */
+	public void setDate(String key, String value) throws DataObjectException {
+		if ( value != null ) {
+			setDate(key, parseDate(value));
+		} else {
+			rawRemove(key);
+		}
+	}
+
 	@SuppressWarnings("deprecation")
 	public void setExpandedDate(String key, Date value) throws DataObjectException {
     	if ( value != null ) {
@@ -989,30 +1412,10 @@ public class DataObject extends LinkedHashMap<String, Object> {
     			throw new DataObjectException(e);
     		}
     	} else {
-    		super.remove(key);				
+    		rawRemove(key);				
     	}
     }
 
-	private DateFormat getDateFormater() {
-    	Map<String, DateFormat> formatters = getDateFormaters();
-    	return formatters.get("Default");
-    }
-
-    private Map<String, DateFormat> getDateFormaters() {
-    	Map<String, DateFormat> formatters = dateFmttrHolder.get();
-        if ( formatters == null ) {
-        	formatters = new HashMap<String, DateFormat>();
-        	formatters.put("Default", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
-        	formatters.put("Secondary", new SimpleDateFormat("MM/dd/yyyy"));
-        	dateFmttrHolder.set(formatters);
-        }
-        return formatters;
-    }
-    private DateFormat getSecondaryDateFormater() {
-    	Map<String, DateFormat> formatters = getDateFormaters();
-    	return formatters.get("Secondary");
-    }
-
     /**
 	 * Set a List value in a DataObject. Calls <code>setObject()</code>.
 	 */
@@ -1020,46 +1423,83 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	public void setDataObjectList(String key, List<DataObject> value) throws DataObjectException {
 		try {
 			if ( value != null ) {
-				trackMetaData(key, "doList");				
+				trackMetaData(key, DataObjectType.DATA_OBJECT_LIST);				
 				setObject_inner(key, value);
 			} else {
-				super.remove(key);				
+				rawRemove(key);				
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}
 	}
 
+	/**
+	 * Stores a copy of value as an IntList, or as strings when store_as_strings is on.
+	 */
     public void setIntegerList(String key, List<Integer> value) throws DataObjectException {
         try {
 			if ( value != null ) {
-				ArrayList<String> realList = new ArrayList<String>();
-				for (int i : value) {
-					realList.add(""+i);
+				if ( store_as_strings ) {
+					ArrayList<String> realList = new ArrayList<String>();
+					for (int i : value) {
+						realList.add(""+i);
+					}
+					trackMetaData(key, DataObjectType.INT_LIST);
+					setObject_inner(key, realList);
+				} else {
+					setIntList(key, value instanceof IntList ? ((IntList) value).copy() : IntList.from(value));
 				}
-				trackMetaData(key, "iList");				
-				setObject(key, realList);
 			} else {
-				super.remove(key);				
+				rawRemove(key);
 			}
         } catch (Exception e) {
             throw new DataObjectException(e);
         }
     }
 
-    public void setFloatList(String key, List<Float> value) throws DataObjectException {
-        try {
-			if ( value != null ) {
-				ArrayList<String> realList = new ArrayList<String>();
-				for (float i : value) {
-					realList.add(""+i);
-				}
-				trackMetaData(key, "fList");				
-				setObject(key, realList);
-			} else {
-				super.remove(key);				
-			}
-        } catch (Exception e) {
+	/**
+	 * Stores value itself, like setStringList, getIntList returns the same list.
+	 */
+	public void setIntList(String key, IntList value) throws DataObjectException {
+		if ( value != null ) {
+			trackMetaData(key, DataObjectType.INT_LIST);
+			setObject_inner(key, value.isReadOnly() ? value.copy() : value);
+		} else {
+			rawRemove(key);
+		}
+	}
+
+	public void setLongList(String key, LongList value) throws DataObjectException {
+		if ( value != null ) {
+			trackMetaData(key, DataObjectType.LONG_LIST);
+			setObject_inner(key, value.isReadOnly() ? value.copy() : value);
+		} else {
+			rawRemove(key);
+		}
+	}
+
+	public void setDoubleList(String key, DoubleList value) throws DataObjectException {
+		if ( value != null ) {
+			trackMetaData(key, DataObjectType.DOUBLE_LIST);
+			setObject_inner(key, value.isReadOnly() ? value.copy() : value);
+		} else {
+			rawRemove(key);
+		}
+	}
+
+    public void setFloatList(String key, List<Float> value) throws DataObjectException {
+        try {
+			if ( value != null ) {
+				ArrayList<String> realList = new ArrayList<String>();
+				for (float i : value) {
+					realList.add(""+i);
+				}
+				trackMetaData(key, DataObjectType.FLOAT_LIST);				
+				setObject(key, realList);
+			} else {
+				rawRemove(key);				
+			}
+        } catch (Exception e) {
             throw new DataObjectException(e);
         }
     }
@@ -1068,14 +1508,14 @@ public class DataObject extends LinkedHashMap<String, Object> {
         try {
 			if ( value != null ) {
 				ArrayList<String> realList = new ArrayList<String>();
-    			DateFormat dateFmttr = getDateFormater();
+    			StoredStringFormat format = StoredStringFormat.forThread();
 				for (Date i : value) {
-					realList.add(dateFmttr.format(i));
+					realList.add(format.formatDate(i));
 				}
-				trackMetaData(key, "dtList");				
+				trackMetaData(key, DataObjectType.DATE_LIST);				
 				setObject(key, realList);
 			} else {
-				super.remove(key);				
+				rawRemove(key);				
 			}
         } catch (Exception e) {
             throw new DataObjectException(e);
@@ -1085,10 +1525,10 @@ public class DataObject extends LinkedHashMap<String, Object> {
     public void setStringList(String key, List<String> value) throws DataObjectException {
 		try {
 			if ( value != null ) {
-				trackMetaData(key, "sList");				
+				trackMetaData(key, DataObjectType.STRING_LIST);				
 				setObject(key, value);
 			} else {
-				super.remove(key);				
+				rawRemove(key);				
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -1154,14 +1594,114 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		}
 	}
 	
+	/**
+	 * Gives object this object's label stamp, by reference: the stamp fields object does
+	 * not have itself are read from the stamp, and the codecs write them out with it.
+	 */
 	public DataObject stampIfNeeded( DataObject object ) {
-		if (labelStampObjects && !object.isImmutable()) {
-			for ( String lskey : labelStamp.keySet() ) {
-				object.put(lskey, labelStamp.get(lskey));
-			}
+		if (labelStampObjects && object != labelStamp && !object.isImmutable()) {
+			object.inheritedStamp = labelStamp;
 		}
 		return object;
 	}
+
+	/**
+	 * The stamp this object inherited from the object it was set in, null if none.
+	 * Its fields are read through get() and containsKey(), and count in equals, hashCode
+	 * and the digest as if they followed this object's own fields, which is where the
+	 * codecs write them.  size() and iteration only cover the object's own fields,
+	 * getInheritedFields() the rest.  A stamp container asked for by a caller that may
+	 * change it is copied into this object first, the stamp itself is never changed.
+	 */
+	public DataObject getInheritedStamp() {
+		return inheritedStamp;
+	}
+
+	/**
+	 * The inherited stamp fields this object does not have itself, in stamp order,
+	 * empty when it has no stamp.
+	 */
+	public Map<String, Object> getInheritedFields() {
+		if ( inheritedStamp == null ) {
+			return Collections.emptyMap();
+		}
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		for ( DataObject stamp = inheritedStamp; stamp != null && stamp != this; stamp = stamp.inheritedStamp ) {
+			Iterator<Map.Entry<String, Object>> stampFields = stamp.fieldIterator();
+			while ( stampFields.hasNext() ) {
+				Map.Entry<String, Object> field = stampFields.next();
+				if ( !storedContainsKey(field.getKey()) && !fields.containsKey(field.getKey()) ) {
+					fields.put(field.getKey(), field.getValue());
+				}
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Copies the inherited stamp fields into this object, which then no longer
+	 * depends on the stamp.  This is what stamping used to do.
+	 */
+	public void materializeStamp() {
+		if ( inheritedStamp != null ) {
+			for ( Map.Entry<String, Object> field : getInheritedFields().entrySet() ) {
+				rawPut(field.getKey(), field.getValue());
+			}
+			inheritedStamp = null;
+		}
+	}
+
+	/**
+	 * This object, or when it or anything below it inherits a label stamp, a copy with
+	 * every stamp materialized.  For writers that walk the fields through the Map api.
+	 */
+	public DataObject withStampsMaterialized() {
+		if ( !inheritsStamps() ) {
+			return this;
+		}
+		DataObject copy = deepCopy();
+		copy.materializeStamps();
+		return copy;
+	}
+
+	private boolean inheritsStamps() {
+		if ( inheritedStamp != null ) {
+			return true;
+		}
+		Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+		while ( fields.hasNext() ) {
+			Object value = fields.next().getValue();
+			if ( value instanceof DataObject ) {
+				if ( ((DataObject) value).inheritsStamps() ) {
+					return true;
+				}
+			} else if ( value instanceof List && !(value instanceof PrimitiveList) ) {
+				for ( Object element : (List<?>) value ) {
+					if ( element instanceof DataObject && ((DataObject) element).inheritsStamps() ) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void materializeStamps() {
+		materializeStamp();
+		Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+		while ( fields.hasNext() ) {
+			Object value = fields.next().getValue();
+			if ( value instanceof DataObject ) {
+				((DataObject) value).materializeStamps();
+			} else if ( value instanceof List && !(value instanceof PrimitiveList) ) {
+				for ( Object element : (List<?>) value ) {
+					if ( element instanceof DataObject ) {
+						((DataObject) element).materializeStamps();
+					}
+				}
+			}
+		}
+	}
 	
 	public boolean isStampNeeded() {
 		return labelStampObjects;
@@ -1171,12 +1711,12 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		try {
 			if ( value != null ) {
 				if ( optrackMeta ) {
-					trackMetaData(key, "do");
+					trackMetaData(key, DataObjectType.DATA_OBJECT);
 				}
 				stampIfNeeded(value);
 				setObject_inner(key, value);
 			} else {
-				super.remove(key);				
+				rawRemove(key);				
 			}
 		} catch (Exception e) {
 			throw new DataObjectException(e);
@@ -1190,7 +1730,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	
 	public void setName(String name) {
 		if (!containsKey(DO_NAME) && name != null) {
-			super.put(DO_NAME, name);
+			rawPut(DO_NAME, name);
 		}
 	}
 
@@ -1199,10 +1739,10 @@ public class DataObject extends LinkedHashMap<String, Object> {
 
 	private void setObject_inner(String key, Object value) throws DataObjectException {
 		if ( value == null ) {
-			super.remove(key);
+			rawRemove(key);
 			return;
 		}
-		super.put(key, value);
+		rawPut(key, value);
 	}
 	
 	
@@ -1255,12 +1795,32 @@ public class DataObject extends LinkedHashMap<String, Object> {
 			setDate(key, (Date)value);
 			return;
 		}
+		if ( value instanceof BinaryValue ) {
+			setBinary(key, (BinaryValue)value);
+			return;
+		}
+		if ( value instanceof byte[] ) {
+			setBinary(key, (byte[])value);
+			return;
+		}
+		if ( value instanceof IntList ) {
+			setIntList(key, (IntList)value);
+			return;
+		}
+		if ( value instanceof LongList ) {
+			setLongList(key, (LongList)value);
+			return;
+		}
+		if ( value instanceof DoubleList ) {
+			setDoubleList(key, (DoubleList)value);
+			return;
+		}
 		if (value instanceof List) {
 			@SuppressWarnings("rawtypes")
 			List list = (List) value;
 			for (int i = 0, size = list.size(); i < size; i++) {
 				Object obj = list.get(i);
-				if (!(obj instanceof DataObject) && !(obj instanceof String) && !(obj instanceof Integer)) {
+				if (!(obj instanceof DataObject) && !(obj instanceof String) && !(obj instanceof Integer) && !(obj instanceof BinaryValue)) {
 					throw new DataObjectException(obj.getClass().getName()
 							+ " cannot be used with setObject()");
 				}
@@ -1282,13 +1842,13 @@ public class DataObject extends LinkedHashMap<String, Object> {
 				setName(value);
 				return;
 			}
-			trackMetaData(key, "string");
-			super.put(key, value);
+			trackMetaData(key, DataObjectType.STRING);
+			rawPut(key, value);
 			if ( andReverseMap ) {
-				super.put(value, key);				
+				rawPut(value, key);				
 			}
 		} else {
-			super.remove(key);
+			rawRemove(key);
 		}
 	}
 
@@ -1312,14 +1872,38 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		return this;
 	}
 	
+	/**
+	 * Stores a value a decoder has just read, exactly as put() would.  A String, Integer,
+	 * Long, Double, Boolean, Date or DataObject goes straight into the storage when
+	 * nothing else has to happen, which is the case in the plain objects a decoder fills;
+	 * anything else takes the usual way through put().
+	 */
+	public void putDecoded(String key, Object value) {
+		if ( !(value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double
+				|| value instanceof Boolean || value instanceof Date || value instanceof DataObject)
+				|| store_as_strings || trackDirtyFields || immutable || frozen != null || sharedKeys != null
+				|| parsedLists != null || DO_NAME.equals(key) || storedGet("MetaData") instanceof DataObject ) {
+			put(key, value);
+			return;
+		}
+		if ( value instanceof DataObject ) {
+			stampIfNeeded((DataObject) value);
+		}
+		invalidateCaches();
+		if ( compactStore != null ) {
+			compactStore.put(key, value);
+		} else {
+			super.put(key, value);
+		}
+	}
+
 	public Object put(String key, Object value) {
 		if ( value == null ) {
-			super.remove(key);
-			return get(key);
+			return rawRemove(key);
 		}
 		Object retVal = null;
 		try {
-			retVal = get(key);
+			retVal = rawGet(key);
 			setObject((String) key, value);
 		} catch (DataObjectException e) {
 			throw new RuntimeException("DataObjectException occurred", e);
@@ -1340,18 +1924,62 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	/**
 	* essentially a deep clone of the dataobject
 	* throws DataObjectException problems occur
-	* copy is created by serializing to the string encoding and back 
+	* copy is created by walking the structure, nested DataObjects, lists and dates
+	* are copied, immutable values are shared
 	*/
 	public DataObject createCopy() throws DataObjectException {
-		DataObject copy = new DataObject();
-		String thisString = toStringEncoded();
-		copy.fromStringEncoded(thisString);
+		if ( autoGenerateUniqueIdOnSerialization ) {
+			generateMD5Digest();
+		}
+		return deepCopy();
+	}
+
+	private DataObject deepCopy() {
+		DataObject copy = copyStructure();
+		if ( copy.compactStore != null ) {
+			//the values were copied in slot order with the shape shared, replace the mutable ones
+			CompactDataObjectStore store = copy.compactStore;
+			for ( int i = 0; i < store.size(); i++ ) {
+				if ( store.kindAt(i) == CompactDataObjectStore.REF ) {
+					Object value = store.valueAt(i);
+					Object valueCopy = copy.copyValue(value);
+					if ( valueCopy != value ) {
+						store.setValueAt(i, valueCopy);
+					}
+				}
+			}
+		} else {
+			for ( Map.Entry<String, Object> entry : copy.entrySet() ) {
+				entry.setValue(copy.copyValue(entry.getValue()));
+			}
+		}
 		if ( isStampNeeded() ) {
 			copy.setLabelStampObjects(getLabelStamp());
 		}
 		return copy;
 	}
 
+	private Object copyValue(Object value) {
+		if ( value instanceof DataObject ) {
+			return ((DataObject) value).deepCopy();
+		} else if ( value instanceof PrimitiveList ) {
+			return ((PrimitiveList<?>) value).copy();
+		} else if ( value instanceof StringEncodedDataObjectList ) {
+			List<String> encoded = ((StringEncodedDataObjectList) value).encodedDataObjects;
+			return new StringEncodedDataObjectList(encoded == null ? null : new ArrayList<String>(encoded));
+		} else if ( value instanceof List ) {
+			List<?> list = (List<?>) value;
+			List<Object> listCopy = new ArrayList<Object>(list.size());
+			for ( Object element : list ) {
+				listCopy.add(copyValue(element));
+			}
+			return listCopy;
+		} else if ( value instanceof Date ) {
+			return ((Date) value).clone();
+		}
+		return value;
+	}
+
 	public DataObject createShallowCopy() throws DataObjectException {
 		DataObject copy = new DataObject();
 		for ( String key : keySet() ) {
@@ -1368,42 +1996,521 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		return copy;
 	}
 
+	/**
+	 * Copy on write copy, nearly free to create.  The snapshot shares nested
+	 * DataObjects, lists and dates with this object, whichever side first asks for
+	 * one of them through an accessor (get, getDataObject, getDataObjectList,
+	 * getStringList, getDate, the path methods...) gets its own shallow copy of it,
+	 * so only the path that is actually touched is ever copied.
+	 * References to nested values taken before the snapshot was created, and values
+	 * seen while iterating entrySet(), are still shared and should only be read.
+	 */
+	public DataObject createSnapshot() {
+		DataObject snapshot = copyStructure();
+		snapshot.store_as_strings = store_as_strings;
+		snapshot.generateMetaData = generateMetaData;
+		if ( isStampNeeded() ) {
+			snapshot.setLabelStampObjects(getLabelStamp());
+		}
+		if ( frozen == null ) {
+			//nothing in a frozen object can change, so only the snapshot has to copy on write
+			markContainersShared();
+		}
+		snapshot.markContainersShared();
+		return snapshot;
+	}
+
+	/**
+	 * Deeply immutable copy of this object, in compact storage with no spare capacity.
+	 * Nested DataObjects are frozen too, lists become read only, Dates are handed out as
+	 * copies, and any attempt to change the copy throws UnsupportedOperationException.
+	 * Nothing is written to a frozen object when it is read, so once published (through
+	 * a final or volatile field, a concurrent collection...) any number of threads can
+	 * read it without copying or locking.  Its hashCode is computed here, its digest,
+	 * toStringEncoded and toBinaryEncoded forms the first time they are asked for.
+	 * Freezing a frozen object returns it, createSnapshot() gives a cheap changeable copy.
+	 */
+	public DataObject freeze() throws DataObjectException {
+		if ( frozen != null ) {
+			return this;
+		}
+		if ( autoGenerateUniqueIdOnSerialization ) {
+			generateMD5Digest();
+		}
+		DataObject copy = copyStructure();
+		//a frozen object cannot depend on a stamp that may still change
+		copy.materializeStamp();
+		copy.setCompactStorage(true);
+		CompactDataObjectStore store = copy.compactStore;
+		for ( int i = 0; i < store.size(); i++ ) {
+			if ( store.kindAt(i) == CompactDataObjectStore.REF ) {
+				Object value = store.valueAt(i);
+				Object frozenValue = frozenValue(value);
+				if ( frozenValue != value ) {
+					store.setValueAt(i, frozenValue);
+				}
+			}
+		}
+		store.makeReadOnly();
+		copy.store_as_strings = store_as_strings;
+		copy.hashCode();
+		//the volatile write publishes everything above to readers that see the object as frozen
+		copy.frozen = new FrozenForms();
+		return copy;
+	}
+
+	public boolean isFrozen() {
+		return frozen != null;
+	}
+
+	private static Object frozenValue(Object value) {
+		if ( value instanceof DataObject ) {
+			return ((DataObject) value).freeze();
+		} else if ( value instanceof PrimitiveList ) {
+			PrimitiveList<?> list = ((PrimitiveList<?>) value).copy();
+			list.makeReadOnly();
+			return list;
+		} else if ( value instanceof StringEncodedDataObjectList ) {
+			return frozenValue(((StringEncodedDataObjectList) value).decode());
+		} else if ( value instanceof List ) {
+			List<?> list = (List<?>) value;
+			Object[] elements = new Object[list.size()];
+			for ( int i = 0; i < elements.length; i++ ) {
+				elements[i] = frozenValue(list.get(i));
+			}
+			return Collections.unmodifiableList(Arrays.asList(elements));
+		} else if ( value instanceof Date ) {
+			return ((Date) value).clone();
+		}
+		return value;
+	}
+
+	//the encoded forms of a frozen object, each computed by whichever thread first needs it
+	private static final class FrozenForms {
+		volatile byte[] digest;
+		volatile String json;
+		volatile String prettyJson;
+		volatile byte[] binary;
+	}
+
+	//copy of the fields with the values themselves shared, in the same storage as this object
+	private DataObject copyStructure() {
+		DataObject copy = new DataObject();
+		copy.inheritedStamp = inheritedStamp;
+		if ( compactStore != null ) {
+			copy.compactStore = compactStore.copy();
+		} else {
+			copy.setCompactStorage(false);
+			for ( Map.Entry<String, Object> entry : super.entrySet() ) {
+				copy.rawPut(entry.getKey(), entry.getValue());
+			}
+		}
+		return copy;
+	}
+
+	private void markContainersShared() {
+		Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+		while ( fields.hasNext() ) {
+			Map.Entry<String, Object> entry = fields.next();
+			if ( isSharableContainer(entry.getValue()) ) {
+				if ( sharedKeys == null ) {
+					sharedKeys = new HashSet<String>();
+				}
+				sharedKeys.add(entry.getKey());
+			}
+		}
+	}
+
+	private static boolean isSharableContainer(Object value) {
+		return value instanceof DataObject || value instanceof List || value instanceof Date || value instanceof StringEncodedDataObjectList;
+	}
+
+	//one level copy of a shared container, anything below it stays shared until touched
+	private Object unshare(Object value) {
+		if ( value instanceof DataObject ) {
+			DataObject shared = (DataObject) value;
+			DataObject copy = shared.copyStructure();
+			copy.store_as_strings = shared.store_as_strings;
+			copy.generateMetaData = shared.generateMetaData;
+			copy.labelStampObjects = shared.labelStampObjects;
+			copy.labelStamp = shared.labelStamp;
+			copy.markContainersShared();
+			return copy;
+		} else if ( value instanceof PrimitiveList ) {
+			return ((PrimitiveList<?>) value).copy();
+		} else if ( value instanceof StringEncodedDataObjectList ) {
+			List<String> encoded = ((StringEncodedDataObjectList) value).encodedDataObjects;
+			return new StringEncodedDataObjectList(encoded == null ? null : new ArrayList<String>(encoded));
+		} else if ( value instanceof List ) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for ( Object element : list ) {
+				copy.add(isSharableContainer(element) ? unshare(element) : element);
+			}
+			return copy;
+		} else if ( value instanceof Date ) {
+			return ((Date) value).clone();
+		}
+		return value;
+	}
+
 	public class StringEncodedDataObjectList  {
 		public List<String> encodedDataObjects = null;
 		
 		public StringEncodedDataObjectList(List<String> encodedDataObjects) {
 			this.encodedDataObjects = encodedDataObjects;
 		}
+
+		//in parallel on the common pool from getParallelDecodeThreshold() elements up
+		List<DataObject> decode() throws DataObjectException {
+			if ( encodedDataObjects == null ) {
+				return new ArrayList<DataObject>();
+			}
+			final List<String> encoded = encodedDataObjects;
+			DataObject[] decoded = new DataObject[encoded.size()];
+			if ( decoded.length >= parallelDecodeThreshold ) {
+				Arrays.parallelSetAll(decoded, new IntFunction<DataObject>() {
+					public DataObject apply(int index) {
+						return decodeElement(encoded.get(index));
+					}
+				});
+			} else {
+				for ( int i = 0; i < decoded.length; i++ ) {
+					decoded[i] = decodeElement(encoded.get(i));
+				}
+			}
+			return new ArrayList<DataObject>(Arrays.asList(decoded));
+		}
 		
 		public String toString() {
 			return encodedDataObjects.toString();
 		}
 	}
 	
+	/**
+	 * Stores DataObjects that are still encoded, they are decoded the first time
+	 * getDataObjectList asks for them (or one by one by getDataObjectListIterator).
+	 */
 	public void setStringEncodedDataObjectList(String key, List<String> stringEncodedDataObjects) throws DataObjectException {
 		try {
-			trackMetaData(key, "doList");
-			setObject(key, new StringEncodedDataObjectList(stringEncodedDataObjects));
+			trackMetaData(key, DataObjectType.DATA_OBJECT_LIST);
+			setObject_inner(key, new StringEncodedDataObjectList(stringEncodedDataObjects));
 		} catch (Exception e) {
 			throw new DataObjectException(e);
 		}		
 	}
 	
+	/**
+	 * Two DataObjects are equal when they hold the same fields in the same order.
+	 * Numbers compare by value within integral and within floating point types,
+	 * so an int field equals the same long field as it would once encoded.
+	 */
 	public boolean equals( Object o ) {
-		boolean isEqual = false;
-		if ( o instanceof DataObject ) {
-			DataObject that = (DataObject)o;
-			try {
-				if ( this.toStringEncoded().equals(that.toStringEncoded())) {
-					isEqual = true;
+		if ( o == this ) {
+			return true;
+		}
+		if ( !(o instanceof DataObject) ) {
+			return false;
+		}
+		DataObject that = (DataObject)o;
+		if ( inheritedStamp != null || that.inheritedStamp != null ) {
+			Map<String, Object> these = fieldsWithInherited();
+			Map<String, Object> those = that.fieldsWithInherited();
+			return these.size() == those.size() && fieldsEqual(these.entrySet().iterator(), those.entrySet().iterator());
+		}
+		if ( size() != that.size() ) {
+			return false;
+		}
+		if ( compactStore != null && that.compactStore != null ) {
+			return compactFieldsEqual(compactStore, that.compactStore);
+		}
+		return fieldsEqual(fieldIterator(), that.fieldIterator());
+	}
+
+	//same keys and values in the same order, the iterators are of the same length
+	private static boolean fieldsEqual(Iterator<Map.Entry<String, Object>> these, Iterator<Map.Entry<String, Object>> those) {
+		while ( these.hasNext() ) {
+			Map.Entry<String, Object> mine = these.next();
+			Map.Entry<String, Object> theirs = those.next();
+			if ( !mine.getKey().equals(theirs.getKey()) || !valuesEqual(mine.getValue(), theirs.getValue()) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Order sensitive hash of the fields, consistent with equals().  It is cached
+	 * until this object or one of its nested DataObjects changes, a nested object tells
+	 * the objects that hashed it when it does.  A DataObject that is a key in a map should
+	 * still not be modified through lists obtained from it earlier.
+	 */
+	public int hashCode() {
+		if ( cacheValid(false) ) {
+			return cachedHash;
+		}
+		dependOnStamps();
+		int hash = 1;
+		if ( compactStore != null ) {
+			for ( int i = 0; i < compactStore.size(); i++ ) {
+				byte kind = compactStore.kindAt(i);
+				int valueHash = CompactDataObjectStore.isPrimitive(kind) ? primitiveHash(kind, compactStore.primAt(i)) : valueHash(compactStore.valueAt(i));
+				hash = 31 * hash + (compactStore.keyAt(i).hashCode() ^ valueHash);
+			}
+		} else {
+			for ( Map.Entry<String, Object> entry : super.entrySet() ) {
+				hash = 31 * hash + (entry.getKey().hashCode() ^ valueHash(entry.getValue()));
+			}
+		}
+		if ( inheritedStamp != null ) {
+			for ( Map.Entry<String, Object> entry : getInheritedFields().entrySet() ) {
+				hash = 31 * hash + (entry.getKey().hashCode() ^ valueHash(entry.getValue()));
+			}
+		}
+		cachedHash = hash;
+		hashValid = true;
+		return hash;
+	}
+
+	/**
+	 * Walks this object's own fields in order, for code that only reads them, the codecs
+	 * for instance.  Unlike entrySet() it keeps the cached hash and digest, so neither
+	 * the entries nor the values may be changed through it.
+	 */
+	public Iterator<Map.Entry<String, Object>> fieldIterator() {
+		return compactStore != null ? compactStore.entrySet().iterator() : super.entrySet().iterator();
+	}
+
+	//the fields as the codecs write them, this object's own then the ones it inherits
+	private Map<String, Object> fieldsWithInherited() {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		Iterator<Map.Entry<String, Object>> own = fieldIterator();
+		while ( own.hasNext() ) {
+			Map.Entry<String, Object> field = own.next();
+			fields.put(field.getKey(), field.getValue());
+		}
+		fields.putAll(getInheritedFields());
+		return fields;
+	}
+
+	//dependent's cached hash or digest now includes ours, it is told when we change
+	private void addCacheDependent(DataObject dependent) {
+		if ( frozen != null || dependent.frozen != null || dependent == cacheDependent ) {
+			//neither can change again
+			return;
+		}
+		if ( cacheDependent == null ) {
+			cacheDependent = dependent;
+		} else {
+			if ( moreCacheDependents == null ) {
+				moreCacheDependents = Collections.newSetFromMap(new IdentityHashMap<DataObject, Boolean>());
+			}
+			moreCacheDependents.add(dependent);
+		}
+	}
+
+	//the inherited fields are part of the hash and digest, so a change to a stamp is a change to us
+	private void dependOnStamps() {
+		for ( DataObject stamp = inheritedStamp; stamp != null && stamp != this; stamp = stamp.inheritedStamp ) {
+			stamp.addCacheDependent(this);
+		}
+	}
+
+	private boolean cacheValid(boolean digest) {
+		FrozenForms forms = frozen;
+		if ( forms != null ) {
+			//the hash was computed by freeze(), nested objects are frozen too
+			return !digest || forms.digest != null;
+		}
+		return digest ? cachedDigest != null : hashValid;
+	}
+
+	//compares unboxed slots directly, same shape means the keys need no checking
+	private static boolean compactFieldsEqual(CompactDataObjectStore these, CompactDataObjectStore those) {
+		boolean sameKeys = these.shape() == those.shape();
+		for ( int i = 0; i < these.size(); i++ ) {
+			if ( !sameKeys && !these.keyAt(i).equals(those.keyAt(i)) ) {
+				return false;
+			}
+			byte kind = these.kindAt(i);
+			if ( CompactDataObjectStore.isPrimitive(kind) && kind == those.kindAt(i) ) {
+				if ( !primitivesEqual(kind, these.primAt(i), those.primAt(i)) ) {
+					return false;
 				}
-			} catch( DataObjectException e ) {
-				throw new RuntimeException("DataObjectException occurred", e);
+			} else if ( !valuesEqual(these.valueAt(i), those.valueAt(i)) ) {
+				return false;
 			}
 		}
-		return isEqual;
+		return true;
 	}
-	
+
+	private static boolean primitivesEqual(byte kind, long bits1, long bits2) {
+		if ( kind == CompactDataObjectStore.DOUBLE ) {
+			return Double.doubleToLongBits(Double.longBitsToDouble(bits1)) == Double.doubleToLongBits(Double.longBitsToDouble(bits2));
+		} else if ( kind == CompactDataObjectStore.FLOAT ) {
+			return Float.floatToIntBits(Float.intBitsToFloat((int) bits1)) == Float.floatToIntBits(Float.intBitsToFloat((int) bits2));
+		}
+		return bits1 == bits2;
+	}
+
+	private static boolean valuesEqual(Object val1, Object val2) {
+		if ( val1 == val2 ) {
+			return true;
+		}
+		if ( val1 == null || val2 == null ) {
+			return false;
+		}
+		if ( val1 instanceof Number && val2 instanceof Number ) {
+			if ( isIntegral(val1) && isIntegral(val2) ) {
+				return ((Number) val1).longValue() == ((Number) val2).longValue();
+			}
+			if ( isFloating(val1) && isFloating(val2) ) {
+				if ( val1 instanceof Float || val2 instanceof Float ) {
+					//a float written as a double encodes the same, compare at float precision
+					return Float.floatToIntBits(((Number) val1).floatValue()) == Float.floatToIntBits(((Number) val2).floatValue());
+				}
+				return Double.doubleToLongBits(((Number) val1).doubleValue()) == Double.doubleToLongBits(((Number) val2).doubleValue());
+			}
+			return val1.equals(val2);
+		}
+		if ( val1 instanceof PrimitiveList && val1.getClass() == val2.getClass() ) {
+			return val1.equals(val2);
+		}
+		if ( (val1 instanceof PrimitiveList || val2 instanceof PrimitiveList) && val1 instanceof List && val2 instanceof List ) {
+			return elementTextsEqual((List<?>) val1, (List<?>) val2);
+		}
+		if ( val1 instanceof List && val2 instanceof List ) {
+			List<?> list1 = (List<?>) val1;
+			List<?> list2 = (List<?>) val2;
+			if ( list1.size() != list2.size() ) {
+				return false;
+			}
+			Iterator<?> elements1 = list1.iterator();
+			Iterator<?> elements2 = list2.iterator();
+			while ( elements1.hasNext() ) {
+				if ( !valuesEqual(elements1.next(), elements2.next()) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if ( (val1 instanceof BinaryValue) != (val2 instanceof BinaryValue) ) {
+			//binary comes back from the text codecs as its base64 text
+			return val1 instanceof String || val2 instanceof String ? val1.toString().equals(val2.toString()) : false;
+		}
+		if ( val1 instanceof StringEncodedDataObjectList && val2 instanceof StringEncodedDataObjectList ) {
+			return Objects.equals(((StringEncodedDataObjectList) val1).encodedDataObjects, ((StringEncodedDataObjectList) val2).encodedDataObjects);
+		}
+		return val1.equals(val2);
+	}
+
+	//a number list equals the list of strings the codecs write for it, and decode it back into
+	private static boolean elementTextsEqual(List<?> list1, List<?> list2) {
+		if ( list1.size() != list2.size() ) {
+			return false;
+		}
+		for ( int i = 0; i < list1.size(); i++ ) {
+			Object text = elementText(list1, i);
+			if ( !(text instanceof String) || !text.equals(elementText(list2, i)) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Object elementText(List<?> list, int index) {
+		return list instanceof PrimitiveList ? ((PrimitiveList<?>) list).elementText(index) : list.get(index);
+	}
+
+	private int valueHash(Object value) {
+		if ( value == null ) {
+			return 0;
+		} else if ( value instanceof DataObject ) {
+			((DataObject) value).addCacheDependent(this);
+			return value.hashCode();
+		} else if ( isIntegral(value) ) {
+			long longValue = ((Number) value).longValue();
+			return (int) (longValue ^ (longValue >>> 32));
+		} else if ( isFloating(value) ) {
+			//float precision so a Float and the equal Double hash the same
+			return Float.floatToIntBits(((Number) value).floatValue());
+		} else if ( value instanceof PrimitiveList ) {
+			return primitiveListHash((PrimitiveList<?>) value);
+		} else if ( value instanceof List ) {
+			int hash = 1;
+			for ( Object element : (List<?>) value ) {
+				hash = 31 * hash + valueHash(element);
+			}
+			return hash;
+		} else if ( value instanceof StringEncodedDataObjectList ) {
+			return Objects.hashCode(((StringEncodedDataObjectList) value).encodedDataObjects);
+		} else if ( value instanceof BinaryValue ) {
+			//the hash of the equal base64 String
+			return ((BinaryValue) value).base64HashCode();
+		}
+		return value.hashCode();
+	}
+
+	//the hash of the equal list of strings, see elementTextsEqual
+	private static int primitiveListHash(PrimitiveList<?> list) {
+		int hash = 1;
+		for ( int i = 0; i < list.size(); i++ ) {
+			int elementHash;
+			if ( list instanceof IntList ) {
+				elementHash = decimalHash(((IntList) list).getInt(i));
+			} else if ( list instanceof LongList ) {
+				elementHash = decimalHash(((LongList) list).getLong(i));
+			} else {
+				elementHash = list.elementText(i).hashCode();
+			}
+			hash = 31 * hash + elementHash;
+		}
+		return hash;
+	}
+
+	//Long.toString(value).hashCode() without the String
+	private static int decimalHash(long value) {
+		if ( value == Long.MIN_VALUE ) {
+			return Long.toString(value).hashCode();
+		}
+		int hash = 0;
+		if ( value < 0 ) {
+			hash = '-';
+			value = -value;
+		}
+		long divisor = 1;
+		while ( value / divisor >= 10 ) {
+			divisor *= 10;
+		}
+		for ( ; divisor > 0; divisor /= 10 ) {
+			hash = 31 * hash + (char) ('0' + value / divisor % 10);
+		}
+		return hash;
+	}
+
+	private static int primitiveHash(byte kind, long bits) {
+		switch ( kind ) {
+			case CompactDataObjectStore.DOUBLE:
+				return Float.floatToIntBits((float) Double.longBitsToDouble(bits));
+			case CompactDataObjectStore.FLOAT:
+				return Float.floatToIntBits(Float.intBitsToFloat((int) bits));
+			case CompactDataObjectStore.CHAR:
+				return (char) bits;
+			case CompactDataObjectStore.BOOLEAN:
+				return bits != 0L ? 1231 : 1237;
+			default:
+				return (int) (bits ^ (bits >>> 32));
+		}
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static boolean isFloating(Object value) {
+		return value instanceof Double || value instanceof Float;
+	}
+
 	   //sequences are useful for our disruptor service, you can ignore
 	public long getSequence() {
 		return sequence;
@@ -1420,9 +2527,13 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	public void setTrackDirtyFields( boolean trackDirty ) {
 		this.trackDirtyFields = trackDirty;
 		if ( trackDirtyFields == true ) {
-			dirtyFields = new ArrayList<String>();
+			dirtyFields = new LinkedHashSet<String>();
 		}
 	}
+
+	public boolean isTrackDirtyFields() {
+		return trackDirtyFields;
+	}
 	
 	public void setLabelStampObjects( DataObject stamp ) {
 		this.labelStampObjects = true;
@@ -1433,7 +2544,10 @@ public class DataObject extends LinkedHashMap<String, Object> {
 		this.generateMetaData = generateMetaData;
 		if ( this.generateMetaData ) {
 			if ( this.getDataObject("MetaData") == null ) {
-				this.setDataObject("MetaData", new DataObject() );
+				//compact so each field's type is kept as a tag byte
+				DataObject meta = new DataObject();
+				meta.setCompactStorage(true);
+				this.setDataObject("MetaData", meta );
 			} else {
 				this.getDataObject("MetaData").clear();
 			}
@@ -1443,7 +2557,7 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 	
 	public String getUniqueId() {
-		return (String) super.get(DO_UNIQUEID);
+		return (String) rawGet(DO_UNIQUEID);
 	}
 
 	public void setUniqueId(String uniqueID) {
@@ -1451,51 +2565,179 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	public void clear() {
+		checkNotFrozen();
 		sequence = -1L;
 		autoGenerateUniqueIdOnSerialization = false;
 		transientCache = null;
-		super.clear();
+		sharedKeys = null;
+		//the stamp's fields go too, the object starts over
+		inheritedStamp = null;
+		invalidateCaches();
+		parsedLists = null;
+		if ( trackDirtyFields ) {
+			//everything that was there has been removed
+			Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+			while ( fields.hasNext() ) {
+				dirtyFields.add(fields.next().getKey());
+			}
+		}
+		if ( compactStore != null ) {
+			compactStore.clear();
+		} else {
+			super.clear();
+		}
+	}
+
+	/**
+	 * The DataObjectPool this object was acquired from, null when it was created directly.
+	 */
+	public DataObjectPool getPool() {
+		return pool;
+	}
+
+	void setPool(DataObjectPool pool, boolean pooled) {
+		this.pool = pool;
+		this.pooled = pooled;
+	}
+
+	boolean isPooled() {
+		return pooled;
+	}
+
+	/**
+	 * A new DataObject to nest in this one, taken from this object's pool when it has one.
+	 */
+	public DataObject newChild() {
+		return pool != null ? pool.acquire() : new DataObject();
+	}
+
+	/**
+	 * A new list to store in this object, taken from this object's pool when it has one.
+	 */
+	public <E> List<E> newList() {
+		return pool != null ? pool.<E>acquireList() : new ArrayList<E>();
+	}
+
+	/**
+	 * Gives this object back to the pool it was acquired from, with the DataObjects and
+	 * lists nested in it that came from the same pool; none of them may be used afterwards.
+	 * Frozen objects, objects and lists created elsewhere or by other pools, and values
+	 * shared with a snapshot are left alone.  Does nothing when this object was not
+	 * acquired from a pool.
+	 */
+	public void release() {
+		if ( pool != null ) {
+			pool.release(this);
+		}
+	}
+
+	//gives the nested objects and lists of pool back to it, except those shared with a snapshot
+	void releaseFields(DataObjectPool pool) {
+		Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+		while ( fields.hasNext() ) {
+			Map.Entry<String, Object> field = fields.next();
+			if ( sharedKeys != null && sharedKeys.contains(field.getKey()) ) {
+				continue;
+			}
+			Object value = field.getValue();
+			if ( value instanceof DataObject ) {
+				pool.release((DataObject) value);
+			} else if ( value instanceof List ) {
+				pool.releaseList((List<?>) value);
+			}
+		}
+	}
+
+	//back to the state of a new DataObject, keeping the storage (and transient cache) already allocated
+	void recycle() {
+		HashMap<String, Object> cache = transientCache;
+		trackDirtyFields = false;
+		dirtyFields = null;
+		generateMetaData = false;
+		labelStampObjects = false;
+		labelStamp = null;
+		inheritedStamp = null;
+		immutable = false;
+		store_as_strings = false;
+		clear();
+		sequence = 0L;
+		if ( cache != null ) {
+			cache.clear();
+			transientCache = cache;
+		}
 	}
 	
 	public Object getUsingMetaData(String name) {
-		DataObject meta = getDataObject("MetaData");
-		if ( meta != null ) {
-			String type = meta.getString(name);
-			if ( type.equals("string")) {
-				return getString(name);
-			} else if ( type.equals("int")) {
-				return getInt(name);
-			} else if ( type.equals("long")) {
-				return getLong(name);
-			} else if ( type.equals("short")) {
-				return getShort(name);
-			} else if ( type.equals("double")) {
-				return getDouble(name);
-			} else if ( type.equals("float")) {
-				return getFloat(name);
-			} else if ( type.equals("do")) {
-				return getDataObject(name);
-			} else if ( type.equals("doList")) {
-				return getDataObjectList(name);
-			} else if ( type.equals("iList")) {
-				return getIntegerList(name);
-			} else if ( type.equals("sList")) {
-				return getStringList(name);
-			} else if ( type.equals("boolean")) {
-				return getBoolean(name);
-			} else if ( type.equals("byte")) {
-				return getByte(name);
-			} else if ( type.equals("binary")) {
-				return getString(name);
-			} else if ( type.equals("date")) {
-				return getDate(name);
-			} else if ( type.equals("char")) {
-				return getChar(name);
+		DataObjectType type = getMetaDataType(name);
+		if ( type != null ) {
+			switch ( type ) {
+				case STRING:
+				case BINARY:
+					return getString(name);
+				case INT:
+					return getInt(name);
+				case LONG:
+					return getLong(name);
+				case SHORT:
+					return getShort(name);
+				case DOUBLE:
+					return getDouble(name);
+				case FLOAT:
+					return getFloat(name);
+				case DATA_OBJECT:
+					return getDataObject(name);
+				case DATA_OBJECT_LIST:
+					return getDataObjectList(name);
+				case INT_LIST:
+					return getIntegerList(name);
+				case LONG_LIST:
+					return getLongList(name);
+				case DOUBLE_LIST:
+					return getDoubleList(name);
+				case STRING_LIST:
+					return getStringList(name);
+				case BOOLEAN:
+					return getBoolean(name);
+				case BYTE:
+					return getByte(name);
+				case DATE:
+					return getDate(name);
+				case CHAR:
+					return getChar(name);
+				default:
 			}
 		}
 		return get(name);
 	}
 
+	/**
+	 * The type recorded for key in this object's MetaData, null when there is no
+	 * MetaData or key has no (known) type.
+	 */
+	public DataObjectType getMetaDataType(String key) {
+		Object meta = rawGet("MetaData");
+		if ( !(meta instanceof DataObject) ) {
+			return null;
+		}
+		return ((DataObject) meta).typeTagOf(key);
+	}
+
+	private DataObjectType typeTagOf(String key) {
+		if ( compactStore != null ) {
+			int slot = compactStore.indexOf(key);
+			if ( slot < 0 ) {
+				return null;
+			}
+			DataObjectType type = compactStore.tagAt(slot);
+			if ( type != null ) {
+				return type;
+			}
+		}
+		//MetaData read back from an encoding holds the type names
+		Object typeName = rawGet(key);
+		return typeName instanceof String ? DataObjectType.forTypeName((String) typeName) : null;
+	}
+
 	public void merge( DataObject mergeObj, boolean mergeMeta, String prefix) {
 		if ( mergeMeta ) {
 			DataObject meta = getDataObject("MetaData");
@@ -1518,34 +2760,207 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	}
 
 	protected void trackMetaData(String key, String type) throws DataObjectException{
+		DataObjectType knownType = DataObjectType.forTypeName(type);
+		if ( knownType != null ) {
+			trackMetaData(key, knownType);
+		} else {
+			if ( immutable ) {
+				throw new DataObjectException("Immutable Cannot be set");
+			}
+			DataObject meta = getDataObject("MetaData");
+			if ( meta != null ) {
+				meta.setString(key, type);
+			}
+		}
+	}
+
+	protected void trackMetaData(String key, DataObjectType type) throws DataObjectException{
 		if ( immutable ) {
 			throw new DataObjectException("Immutable Cannot be set");
 		}
-		DataObject meta = getDataObject("MetaData");
-		if ( meta != null ) {
-			meta.setString(key, type);
+		Object meta = ownValue("MetaData");
+		if ( meta instanceof DataObject ) {
+			((DataObject) meta).setTypeTag(key, type);
 		}
-		if ( trackDirtyFields == true ) {
-			dirtyFields.add(key);
+	}
+
+	private void setTypeTag(String key, DataObjectType type) {
+		if ( compactStore != null && !store_as_strings ) {
+			fieldChanged(key);
+			compactStore.putTag(key, type);
+		} else {
+			rawPut(key, type.getTypeName());
 		}
 	}
 
+	/**
+	 * Keys set or removed since dirty field tracking was turned on or last cleared,
+	 * each key once.  A key that is dirty but no longer present was removed.
+	 * DataObjectPatchCodec turns these into a patch.
+	 */
 	public List<String> getDirtyFields() {
 		if ( trackDirtyFields ) {
-			return dirtyFields;
+			return new ArrayList<String>(dirtyFields);
 		} else {
 			return Collections.emptyList();
 		}
 	}
+
+	//typically called once the changes have been sent
+	public void clearDirtyFields() {
+		if ( trackDirtyFields ) {
+			dirtyFields.clear();
+		}
+	}
 	
+	/**
+	 * Sets the unique id to the MD5 of the fields (the unique id itself left out).
+	 * Each nested DataObject keeps its own digest, so only the subtrees that changed
+	 * since the last call are hashed again.
+	 */
 	public String generateMD5Digest() {
-		String currentRep = DataObjectJSONCodec.toJSONString(this);
-		String digest = DigestUtils.md5Hex(currentRep);
+		String digest = Hex.encodeHexString(digest());
 		setUniqueId(digest);
 		return digest;
 	}
 
+	byte[] digest() {
+		FrozenForms forms = frozen;
+		if ( forms != null ) {
+			byte[] digest = forms.digest;
+			if ( digest == null ) {
+				digest = computeDigest();
+				forms.digest = digest;
+			}
+			return digest;
+		}
+		if ( cacheValid(true) ) {
+			return cachedDigest;
+		}
+		cachedDigest = computeDigest();
+		return cachedDigest;
+	}
+
+	private byte[] computeDigest() {
+		dependOnStamps();
+		Map<String, Object> inherited = getInheritedFields();
+		//nested digests first, the digest below is per thread and cannot be shared with them
+		Iterator<Map.Entry<String, Object>> fields = fieldIterator();
+		while ( fields.hasNext() ) {
+			digestNested(fields.next().getValue());
+		}
+		for ( Object value : inherited.values() ) {
+			digestNested(value);
+		}
+		CanonicalDigest canonical = CanonicalDigest.begin();
+		if ( compactStore != null ) {
+			for ( int i = 0; i < compactStore.size(); i++ ) {
+				String key = compactStore.keyAt(i);
+				if ( !DO_UNIQUEID.equals(key) ) {
+					canonical.writeKey(key);
+					writePrimitiveOrValue(canonical, i);
+				}
+			}
+		} else {
+			for ( Map.Entry<String, Object> entry : super.entrySet() ) {
+				if ( !DO_UNIQUEID.equals(entry.getKey()) ) {
+					canonical.writeKey(entry.getKey());
+					canonical.writeValue(entry.getValue());
+				}
+			}
+		}
+		for ( Map.Entry<String, Object> entry : inherited.entrySet() ) {
+			if ( !DO_UNIQUEID.equals(entry.getKey()) ) {
+				canonical.writeKey(entry.getKey());
+				canonical.writeValue(entry.getValue());
+			}
+		}
+		return canonical.finish();
+	}
+
+	private void digestNested(Object value) {
+		if ( value instanceof DataObject ) {
+			((DataObject) value).addCacheDependent(this);
+			((DataObject) value).digest();
+		} else if ( value instanceof List && !(value instanceof PrimitiveList) ) {
+			for ( Object element : (List<?>) value ) {
+				digestNested(element);
+			}
+		}
+	}
+
+	byte[] cachedDigest() {
+		FrozenForms forms = frozen;
+		return forms != null ? forms.digest : cachedDigest;
+	}
+
+	//writes unboxed slots the way their boxes would be written
+	private void writePrimitiveOrValue(CanonicalDigest canonical, int slot) {
+		byte kind = compactStore.kindAt(slot);
+		long bits = CompactDataObjectStore.isPrimitive(kind) ? compactStore.primAt(slot) : 0L;
+		switch ( kind ) {
+			case CompactDataObjectStore.INT:
+			case CompactDataObjectStore.LONG:
+			case CompactDataObjectStore.SHORT:
+			case CompactDataObjectStore.BYTE:
+				canonical.writeIntegral(bits);
+				break;
+			case CompactDataObjectStore.DOUBLE:
+				canonical.writeDouble(Double.longBitsToDouble(bits));
+				break;
+			case CompactDataObjectStore.FLOAT:
+				canonical.writeFloat(Float.intBitsToFloat((int) bits));
+				break;
+			case CompactDataObjectStore.CHAR:
+				canonical.writeChar((char) bits);
+				break;
+			case CompactDataObjectStore.BOOLEAN:
+				canonical.writeBoolean(bits != 0L);
+				break;
+			default:
+				canonical.writeValue(compactStore.valueAt(slot));
+		}
+	}
+
+	private void checkNotFrozen() {
+		if ( frozen != null ) {
+			throw new UnsupportedOperationException("DataObject is frozen");
+		}
+	}
+
+	private void invalidateCaches() {
+		invalidateCaches(true);
+	}
+
+	private void invalidateCaches(boolean digest) {
+		if ( frozen != null ) {
+			//nothing can change, the views and accessors only read
+			return;
+		}
+		hashValid = false;
+		if ( digest ) {
+			cachedDigest = null;
+		}
+		DataObject dependent = cacheDependent;
+		if ( dependent == null ) {
+			return;
+		}
+		Set<DataObject> more = moreCacheDependents;
+		if ( digest ) {
+			//they register again when they recompute, a change to the hash alone leaves their digests depending on ours
+			cacheDependent = null;
+			moreCacheDependents = null;
+		}
+		dependent.invalidateCaches(digest);
+		if ( more != null ) {
+			for ( DataObject other : more ) {
+				other.invalidateCaches(digest);
+			}
+		}
+	}
+
 	public void setStore_as_strings(boolean store_as_strings) {
+		checkNotFrozen();
 		this.store_as_strings = store_as_strings;
 	}
 
@@ -1556,4 +2971,336 @@ public class DataObject extends LinkedHashMap<String, Object> {
 	public DataObject getLabelStamp() {
 		return labelStamp;
 	}
+
+	// Raw storage access, every read and write of a field goes through these so
+	// the compact store and the LinkedHashMap entries are interchangeable
+	
+	private Object rawGet(Object key) {
+		Object value = compactStore != null ? compactStore.get(key) : super.get(key);
+		if ( value == null && inheritedStamp != null ) {
+			//fields this object does not have fall through to its stamp
+			value = inheritedStamp.rawGet(key);
+		}
+		return value;
+	}
+
+	//this object's own value, never the stamp's
+	private Object storedGet(Object key) {
+		return compactStore != null ? compactStore.get(key) : super.get(key);
+	}
+
+	private boolean storedContainsKey(Object key) {
+		return compactStore != null ? compactStore.containsKey(key) : super.containsKey(key);
+	}
+
+	//the key now holds a value of its own, no longer one shared with a snapshot
+	private void fieldChanged(Object key) {
+		checkNotFrozen();
+		if ( trackDirtyFields && key instanceof String ) {
+			dirtyFields.add((String) key);
+		}
+		//the unique id is not part of the digest, setting it only changes the hash
+		invalidateCaches(!DO_UNIQUEID.equals(key));
+		if ( sharedKeys != null ) {
+			sharedKeys.remove(key);
+		}
+		forgetParsedList(key);
+	}
+
+	private Object rawPut(String key, Object value) {
+		fieldChanged(key);
+		return compactStore != null ? compactStore.put(key, value) : super.put(key, value);
+	}
+
+	//removing a key this object does not have changes nothing, so it is neither dirty nor a reason to rehash
+	private Object rawRemove(Object key) {
+		if ( !storedContainsKey(key) ) {
+			checkNotFrozen();
+			if ( inheritedStamp == null || !inheritedStamp.containsKey(key) ) {
+				return null;
+			}
+			Object inherited = rawGet(key);
+			detachFromStamp(key);
+			fieldChanged(key);
+			return inherited;
+		}
+		fieldChanged(key);
+		return compactStore != null ? compactStore.remove(key) : super.remove(key);
+	}
+
+	//the stamp cannot drop a field for one object, so this one takes its own copy of the other inherited fields and stops inheriting
+	private void detachFromStamp(Object removedKey) {
+		for ( Map.Entry<String, Object> field : getInheritedFields().entrySet() ) {
+			if ( !field.getKey().equals(removedKey) ) {
+				Object value = field.getValue();
+				storeQuietly(field.getKey(), isSharableContainer(value) ? unshare(value) : value);
+			}
+		}
+		inheritedStamp = null;
+	}
+
+	//this object's own value for a function that may change it, null when it has none
+	private Object ownStoredValue(Object key) {
+		return storedContainsKey(key) ? ownValue(key) : null;
+	}
+
+	//value for a caller that may modify it, a container still shared with a snapshot is copied first
+	private Object ownValue(Object key) {
+		if ( frozen != null ) {
+			Object value = rawGet(key);
+			//Date is the one stored value that cannot be made read only
+			return value instanceof Date ? ((Date) value).clone() : value;
+		}
+		if ( inheritedStamp != null && !storedContainsKey(key) ) {
+			Object inherited = rawGet(key);
+			if ( !isSharableContainer(inherited) ) {
+				return inherited;
+			}
+			//the stamp's container is shared by everything it stamped, this object gets its own
+			Object value = unshare(inherited);
+			storeQuietly((String) key, value);
+			//equal, but now one of this object's own fields, which comes earlier
+			invalidateCaches();
+			return value;
+		}
+		Object value;
+		if ( sharedKeys != null && sharedKeys.contains(key) ) {
+			//an equal copy, so neither a change nor dirty
+			value = unshare(rawGet(key));
+			sharedKeys.remove(key);
+			storeQuietly((String) key, value);
+		} else {
+			value = rawGet(key);
+		}
+		if ( value instanceof DataObject ) {
+			//a nested object tells the objects whose caches include it when it changes
+			if ( hashValid || cachedDigest != null ) {
+				((DataObject) value).addCacheDependent(this);
+			}
+		} else if ( isSharableContainer(value) ) {
+			//the caller may change it behind our back
+			if ( hashValid || cachedDigest != null ) {
+				invalidateCaches();
+			}
+			forgetParsedList(key);
+		}
+		return value;
+	}
+
+	//replaces a value with an equal one, without the bookkeeping of a change
+	private void storeQuietly(String key, Object value) {
+		if ( compactStore != null ) {
+			compactStore.put(key, value);
+		} else {
+			super.put(key, value);
+		}
+	}
+
+	// Map operations, when compact storage is in use the LinkedHashMap part of
+	// this object stays empty and everything is answered by the compact store
+
+	public Object get(Object key) {
+		return ownValue(key);
+	}
+
+	public boolean containsKey(Object key) {
+		return storedContainsKey(key) || (inheritedStamp != null && inheritedStamp.containsKey(key));
+	}
+
+	public boolean containsValue(Object value) {
+		return compactStore != null ? compactStore.containsValue(value) : super.containsValue(value);
+	}
+
+	public int size() {
+		return compactStore != null ? compactStore.size() : super.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public Object remove(Object key) {
+		return rawRemove(key);
+	}
+
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		for ( Map.Entry<? extends String, ? extends Object> entry : m.entrySet() ) {
+			rawPut(entry.getKey(), entry.getValue());
+		}
+	}
+
+	//the views can change the fields and hand out nested values, so the cached hash and parsed lists cannot be trusted afterwards
+	public Set<Map.Entry<String, Object>> entrySet() {
+		invalidateCaches();
+		parsedLists = null;
+		return compactStore != null ? compactStore.entrySet() : super.entrySet();
+	}
+
+	public Set<String> keySet() {
+		invalidateCaches();
+		return compactStore != null ? compactStore.keySet() : super.keySet();
+	}
+
+	public Collection<Object> values() {
+		invalidateCaches();
+		parsedLists = null;
+		return compactStore != null ? compactStore.values() : super.values();
+	}
+
+	public Object getOrDefault(Object key, Object defaultValue) {
+		return containsKey(key) ? ownValue(key) : defaultValue;
+	}
+
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		invalidateCaches();
+		parsedLists = null;
+		if ( compactStore == null ) {
+			super.forEach(action);
+			return;
+		}
+		for ( int i = 0; i < compactStore.size(); i++ ) {
+			action.accept(compactStore.keyAt(i), compactStore.valueAt(i));
+		}
+	}
+
+	//only the keys whose value the function replaces are changed
+	public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+		checkNotFrozen();
+		List<String> keys = new ArrayList<String>(compactStore != null ? compactStore.keySet() : super.keySet());
+		for ( String key : keys ) {
+			Object current = ownValue(key);
+			Object value = function.apply(key, current);
+			if ( value != current ) {
+				rawPut(key, value);
+			}
+		}
+	}
+
+	// The default Map operations below read and write through the raw accessors, so a
+	// key is only dirty (and the caches only dropped) when its field really changes
+
+	public Object putIfAbsent(String key, Object value) {
+		Object current = storedGet(key);
+		if ( current == null && value != null ) {
+			rawPut(key, value);
+		}
+		return current;
+	}
+
+	public boolean remove(Object key, Object value) {
+		if ( !storedContainsKey(key) || !Objects.equals(storedGet(key), value) ) {
+			return false;
+		}
+		rawRemove(key);
+		return true;
+	}
+
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		if ( !storedContainsKey(key) || !Objects.equals(storedGet(key), oldValue) ) {
+			return false;
+		}
+		rawPut(key, newValue);
+		return true;
+	}
+
+	public Object replace(String key, Object value) {
+		return storedContainsKey(key) ? rawPut(key, value) : null;
+	}
+
+	public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+		Object current = ownStoredValue(key);
+		if ( current == null ) {
+			current = mappingFunction.apply(key);
+			if ( current != null ) {
+				rawPut(key, current);
+			}
+		}
+		return current;
+	}
+
+	public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		Object current = ownStoredValue(key);
+		if ( current == null ) {
+			return null;
+		}
+		Object value = remappingFunction.apply(key, current);
+		if ( value == null ) {
+			rawRemove(key);
+		} else {
+			rawPut(key, value);
+		}
+		return value;
+	}
+
+	public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+		Object value = remappingFunction.apply(key, ownStoredValue(key));
+		if ( value == null ) {
+			rawRemove(key);
+		} else {
+			rawPut(key, value);
+		}
+		return value;
+	}
+
+	public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+		Object current = ownStoredValue(key);
+		Object newValue = current == null ? value : remappingFunction.apply(current, value);
+		if ( newValue == null ) {
+			rawRemove(key);
+		} else {
+			rawPut(key, newValue);
+		}
+		return newValue;
+	}
+
+	public Object clone() {
+		DataObject copy = (DataObject) super.clone();
+		if ( compactStore != null ) {
+			//HashMap.clone() filled the copy's table from our entrySet, storage stays compact
+			copy.clearLinkedStorage();
+			copy.compactStore = compactStore.copy();
+			if ( frozen != null ) {
+				//a clone of a frozen object is frozen too and shares its encoded forms
+				copy.compactStore.makeReadOnly();
+			}
+		}
+		if ( sharedKeys != null ) {
+			copy.sharedKeys = new HashSet<String>(sharedKeys);
+		}
+		if ( dirtyFields != null ) {
+			copy.dirtyFields = new LinkedHashSet<String>(dirtyFields);
+		}
+		copy.parsedLists = null;
+		//nested objects only know this object as depending on them, the copy computes its own
+		copy.hashValid = false;
+		copy.cachedDigest = null;
+		copy.cacheDependent = null;
+		copy.moreCacheDependents = null;
+		return copy;
+	}
+
+	private void clearLinkedStorage() {
+		super.clear();
+	}
+
+	//compact storage is transient, serialize the LinkedHashMap form so the stream format does not change,
+	//an inherited stamp is transient too, so its fields are written as this object's
+	protected Object writeReplace() throws ObjectStreamException {
+		if ( compactStore == null && inheritedStamp == null ) {
+			return this;
+		}
+		DataObject replacement = (DataObject) clone();
+		//only lives for the write, a clone of a frozen object would refuse the changes below
+		replacement.frozen = null;
+		replacement.materializeStamp();
+		replacement.setCompactStorage(false);
+		return replacement;
+	}
+
+	protected Object readResolve() throws ObjectStreamException {
+		if ( compactStorageByDefault ) {
+			setCompactStorage(true);
+		}
+		return this;
+	}
 }
@@ -0,0 +1,238 @@
+package com.textserv.framework;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * The date formats DataObject understands when a date is held as text.  Each parser
+ * looks at the characters to decide whether the text is in its format and returns
+ * null when it is not, so trying the next format never costs a thrown exception.
+ * <p>
+ * The built in formats are {@link #DEFAULT} ("yyyy-MM-dd HH:mm:ss") and
+ * {@link #SECONDARY} ("MM/dd/yyyy"), tried in that order by {@link #parse(String)};
+ * more can be added with {@link #register(DateParser)}.  All parsers are thread safe.
+ */
+public final class DataObjectDateParsers {
+
+	public interface DateParser {
+		/**
+		 * The date in text, or null when text is not in this parser's format.
+		 * Must be thread safe and must not throw for text it does not understand.
+		 */
+		Date parse(String text);
+	}
+
+	private static final ThreadLocal<Calendar> calendarHolder = new ThreadLocal<Calendar>();
+
+	/**
+	 * "yyyy-MM-dd HH:mm:ss" in the default time zone, read as leniently as
+	 * SimpleDateFormat does: fields may have fewer digits, out of range values roll
+	 * over and anything after the seconds is ignored.
+	 */
+	public static final DateParser DEFAULT = new DateParser() {
+		public Date parse(String text) {
+			long year = number(text, 0);
+			if ( !separatedBy(text, year, '-') ) {
+				return null;
+			}
+			long month = number(text, end(year) + 1);
+			if ( !separatedBy(text, month, '-') ) {
+				return null;
+			}
+			long day = number(text, end(month) + 1);
+			if ( !separatedBy(text, day, ' ') ) {
+				return null;
+			}
+			long hour = number(text, end(day) + 1);
+			if ( !separatedBy(text, hour, ':') ) {
+				return null;
+			}
+			long minute = number(text, end(hour) + 1);
+			if ( !separatedBy(text, minute, ':') ) {
+				return null;
+			}
+			long second = number(text, end(minute) + 1);
+			if ( second < 0 ) {
+				return null;
+			}
+			return localDate(value(year), value(month), value(day), value(hour), value(minute), value(second));
+		}
+	};
+
+	/**
+	 * "MM/dd/yyyy", midnight in the default time zone, lenient like DEFAULT.
+	 */
+	public static final DateParser SECONDARY = new DateParser() {
+		public Date parse(String text) {
+			long month = number(text, 0);
+			if ( !separatedBy(text, month, '/') ) {
+				return null;
+			}
+			long day = number(text, end(month) + 1);
+			if ( !separatedBy(text, day, '/') ) {
+				return null;
+			}
+			long year = number(text, end(day) + 1);
+			if ( year < 0 ) {
+				return null;
+			}
+			return localDate(value(year), value(month), value(day), 0, 0, 0);
+		}
+	};
+
+	/**
+	 * ISO 8601 with fractional seconds and an offset, "yyyy-MM-dd'T'HH:mm:ss.SSS" then
+	 * "Z" or "+hh:mm", as written by JSON producers.  Strict, the whole text must match
+	 * and every field must be in range.  Fractions beyond milliseconds are truncated.
+	 * The offset is in the text so the instant is plain java.time arithmetic.
+	 */
+	public static final DateParser ISO_DATE_TIME = new DateParser() {
+		public Date parse(String text) {
+			int length = text.length();
+			if ( length < 22 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+					|| text.charAt(13) != ':' || text.charAt(16) != ':' || text.charAt(19) != '.' ) {
+				return null;
+			}
+			int year = digits(text, 0, 4);
+			int month = digits(text, 5, 2);
+			int day = digits(text, 8, 2);
+			int hour = digits(text, 11, 2);
+			int minute = digits(text, 14, 2);
+			int second = digits(text, 17, 2);
+			if ( year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 ) {
+				return null;
+			}
+			if ( day > LocalDate.of(year, month, 1).lengthOfMonth() ) {
+				return null;
+			}
+			int position = 20;
+			int millis = 0;
+			int fractionDigits = 0;
+			while ( position < length && text.charAt(position) >= '0' && text.charAt(position) <= '9' ) {
+				if ( fractionDigits < 3 ) {
+					millis = millis * 10 + (text.charAt(position) - '0');
+				}
+				fractionDigits++;
+				position++;
+			}
+			if ( fractionDigits == 0 || fractionDigits > 9 ) {
+				return null;
+			}
+			for ( int i = fractionDigits; i < 3; i++ ) {
+				millis *= 10;
+			}
+			int offsetSeconds;
+			if ( position == length - 1 && text.charAt(position) == 'Z' ) {
+				offsetSeconds = 0;
+			} else if ( position == length - 6 && (text.charAt(position) == '+' || text.charAt(position) == '-') && text.charAt(position + 3) == ':' ) {
+				int offsetHours = digits(text, position + 1, 2);
+				int offsetMinutes = digits(text, position + 4, 2);
+				if ( offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59 ) {
+					return null;
+				}
+				offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+				if ( text.charAt(position) == '-' ) {
+					offsetSeconds = -offsetSeconds;
+				}
+			} else {
+				return null;
+			}
+			long epochSeconds = LocalDate.of(year, month, day).toEpochDay() * 86400L + hour * 3600 + minute * 60 + second - offsetSeconds;
+			return new Date(epochSeconds * 1000L + millis);
+		}
+	};
+
+	private static volatile DateParser[] parsers = { DEFAULT, SECONDARY };
+
+	private DataObjectDateParsers() {
+	}
+
+	/**
+	 * Adds a format, tried after the ones already registered.
+	 */
+	public static synchronized void register(DateParser parser) {
+		if ( parser == null ) {
+			throw new IllegalArgumentException("parser cannot be null");
+		}
+		DateParser[] more = Arrays.copyOf(parsers, parsers.length + 1);
+		more[parsers.length] = parser;
+		parsers = more;
+	}
+
+	/**
+	 * The date in text using the first registered format that recognizes it, null if none does.
+	 */
+	public static Date parse(String text) {
+		if ( text == null ) {
+			return null;
+		}
+		for ( DateParser parser : parsers ) {
+			Date date = parser.parse(text);
+			if ( date != null ) {
+				return date;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves local wall time the way SimpleDateFormat does, through a lenient Calendar
+	 * in the default time zone: out of range fields roll over, dates before 1582 are
+	 * Julian and a wall time that happens twice is standard time.  java.time's zone rules
+	 * differ from java.util.TimeZone before standard time was adopted, so they are not used here.
+	 */
+	private static Date localDate(int year, int month, int day, int hour, int minute, int second) {
+		Calendar calendar = calendarHolder.get();
+		if ( calendar == null ) {
+			calendar = Calendar.getInstance();
+			calendarHolder.set(calendar);
+		}
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTime();
+	}
+
+	//the number starting at start packed as value << 16 | end, -1 when there is no digit there
+	private static long number(String text, int start) {
+		int length = text.length();
+		int position = start;
+		long value = 0;
+		//nine digits at most keeps every field within an int
+		while ( position < length && position - start < 9 ) {
+			int digit = text.charAt(position) - '0';
+			if ( digit < 0 || digit > 9 ) {
+				break;
+			}
+			value = value * 10 + digit;
+			position++;
+		}
+		return position == start ? -1 : value << 16 | position;
+	}
+
+	private static boolean separatedBy(String text, long number, char separator) {
+		return number >= 0 && end(number) < text.length() && text.charAt(end(number)) == separator;
+	}
+
+	private static int end(long number) {
+		return (int) (number & 0xFFFF);
+	}
+
+	private static int value(long number) {
+		return (int) (number >>> 16);
+	}
+
+	//fixed width digits, -1 if any of them is not a digit
+	private static int digits(String text, int offset, int width) {
+		int value = 0;
+		for ( int i = offset; i < offset + width; i++ ) {
+			int digit = text.charAt(i) - '0';
+			if ( digit < 0 || digit > 9 ) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+}
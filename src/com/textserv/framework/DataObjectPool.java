@@ -0,0 +1,134 @@
+package com.textserv.framework;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles DataObjects and the lists nested in them, so a pipeline that keeps
+ * building and dropping messages of the same shape stops allocating once warm.
+ * acquire() hands out a cleared DataObject, DataObject.release() gives it back
+ * together with the DataObjects and lists nested in it that came from this pool.
+ * The storage of a recycled object (its hash table or compact value arrays) is kept,
+ * and so are the backing arrays of its lists.  Objects and lists the pool did not hand
+ * out are never cleared or taken over, even when they are stored in a pooled object.
+ * <p>
+ * Objects acquired from a pool take their own nested objects from it too:
+ * DataObject.newChild() and newList(), getDataObject(key, true) and the decoders
+ * all use the pool of the object they fill.
+ * <p>
+ * A pool is not thread safe, it belongs to one thread at a time: use forThread()
+ * for a pool per thread, or give each slot of a ring buffer its own pool so it
+ * changes hands with the slot.
+ */
+public final class DataObjectPool {
+
+	private static final ThreadLocal<DataObjectPool> threadPools = new ThreadLocal<DataObjectPool>();
+
+	private final ArrayDeque<DataObject> objects = new ArrayDeque<DataObject>();
+	private final ArrayDeque<PooledList<Object>> lists = new ArrayDeque<PooledList<Object>>();
+	//most objects (and most lists) kept, anything released beyond that is left to the garbage collector
+	private final int capacity;
+
+	public DataObjectPool() {
+		this(1024);
+	}
+
+	public DataObjectPool(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * The calling thread's own pool.
+	 */
+	public static DataObjectPool forThread() {
+		DataObjectPool pool = threadPools.get();
+		if ( pool == null ) {
+			pool = new DataObjectPool();
+			threadPools.set(pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * An empty DataObject that belongs to this pool, recycled when one is available.
+	 */
+	public DataObject acquire() {
+		DataObject object = objects.pollFirst();
+		if ( object == null ) {
+			object = new DataObject();
+		}
+		object.setPool(this, false);
+		return object;
+	}
+
+	/**
+	 * An empty list that belongs to this pool, recycled when one is available.  Given
+	 * back by releasing the DataObject it is stored in.
+	 */
+	@SuppressWarnings("unchecked")
+	public <E> List<E> acquireList() {
+		PooledList<Object> list = lists.pollFirst();
+		if ( list == null ) {
+			list = new PooledList<Object>(this);
+		}
+		list.pooled = false;
+		return (List<E>) list;
+	}
+
+	/**
+	 * Takes back an object acquired from this pool, with the DataObjects and lists nested
+	 * in it that were acquired from this pool too, see DataObject.release().  Objects of
+	 * other pools or of none are left alone.
+	 */
+	public void release(DataObject object) {
+		if ( object.getPool() != this || object.isPooled() || object.isFrozen() ) {
+			//other pools may belong to other threads, frozen objects may be shared
+			return;
+		}
+		object.releaseFields(this);
+		object.recycle();
+		object.setPool(this, true);
+		if ( objects.size() < capacity ) {
+			objects.addFirst(object);
+		}
+	}
+
+	void releaseList(List<?> list) {
+		//only lists this pool handed out, and only once
+		if ( !(list instanceof PooledList) || ((PooledList<?>) list).owner != this || ((PooledList<?>) list).pooled ) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		PooledList<Object> recycled = (PooledList<Object>) list;
+		recycled.pooled = true;
+		for ( Object element : recycled ) {
+			if ( element instanceof DataObject ) {
+				release((DataObject) element);
+			}
+		}
+		recycled.clear();
+		if ( lists.size() < capacity ) {
+			lists.addFirst(recycled);
+		}
+	}
+
+	/**
+	 * How many objects are waiting to be handed out again.
+	 */
+	public int getPooledCount() {
+		return objects.size();
+	}
+
+	//the lists acquireList() hands out, tagged with their pool so only they are recycled
+	private static final class PooledList<E> extends ArrayList<E> {
+		private static final long serialVersionUID = 1L;
+		private final transient DataObjectPool owner;
+		//true while the list waits in its pool to be handed out again
+		private transient boolean pooled = false;
+
+		PooledList(DataObjectPool owner) {
+			this.owner = owner;
+		}
+	}
+}
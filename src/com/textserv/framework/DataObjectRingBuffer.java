@@ -0,0 +1,272 @@
+package com.textserv.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes DataObjects from one producer thread to consumer threads through a ring of
+ * preallocated entries, without queue nodes or locks.  The producer claims the next
+ * sequence with next(), fills get(sequence) and makes it visible with publish(sequence).
+ * Every consumer sees every entry, in sequence order and in batches of whatever has
+ * been published since it last looked; a consumer created after other consumers only
+ * sees an entry once they are done with it, so the ring can carry a message through
+ * several stages.  The producer does not pass a slot a consumer has not finished with.
+ * <p>
+ * Each slot has its own DataObjectPool.  Claiming a slot releases what the previous
+ * message left in it and hands out the same (cleared) entry, whose nested objects
+ * and lists, from newChild(), newList() or a decoder, come back from the slot's pool,
+ * so a warm ring allocates no containers at all.  Objects and lists the producer stores
+ * in an entry from elsewhere are not cleared or recycled, only dropped from the entry.
+ * The entry's sequence is set to the claimed sequence.
+ * <p>
+ * Consumers must treat entries as read only and copy (createCopy() or freeze()) what
+ * they keep after their handler returns, the slot is reused once the ring wraps.
+ * Create all consumers before the first publish.
+ */
+public final class DataObjectRingBuffer {
+
+	/**
+	 * How producer and consumers wait for each other.  BUSY_SPIN has the lowest latency
+	 * but needs a core for each waiting thread, YIELD gives the core to other threads
+	 * between checks and PARK sleeps briefly, trading latency for idle CPU.
+	 */
+	public enum WaitStrategy {
+		BUSY_SPIN {
+			void idle(int attempt) {
+			}
+		},
+		YIELD {
+			void idle(int attempt) {
+				if ( attempt > SPIN_TRIES ) {
+					Thread.yield();
+				}
+			}
+		},
+		PARK {
+			void idle(int attempt) {
+				if ( attempt > SPIN_TRIES + YIELD_TRIES ) {
+					LockSupport.parkNanos(PARK_NANOS);
+				} else if ( attempt > SPIN_TRIES ) {
+					Thread.yield();
+				}
+			}
+		};
+
+		abstract void idle(int attempt);
+	}
+
+	/**
+	 * Receives the entries a consumer takes from the ring.  endOfBatch is true for the
+	 * last entry published when the batch started, a good point to flush buffered work.
+	 */
+	public interface Handler {
+		void onDataObject(DataObject dataObject, long sequence, boolean endOfBatch);
+	}
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 1000L;
+
+	private final DataObject[] entries;
+	private final DataObjectPool[] pools;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	//last published sequence
+	private final Sequence cursor = new Sequence(-1L);
+	//only touched by the producer: last claimed sequence and the lowest consumer sequence seen
+	private long claimed = -1L;
+	private long cachedGating = -1L;
+	private volatile Consumer[] consumers = new Consumer[0];
+
+	/**
+	 * @param size number of entries, a power of two
+	 */
+	public DataObjectRingBuffer(int size, WaitStrategy waitStrategy) {
+		if ( size < 1 || Integer.bitCount(size) != 1 ) {
+			throw new IllegalArgumentException("ring buffer size must be a power of two: " + size);
+		}
+		this.entries = new DataObject[size];
+		this.pools = new DataObjectPool[size];
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+		for ( int i = 0; i < size; i++ ) {
+			pools[i] = new DataObjectPool();
+			entries[i] = pools[i].acquire();
+		}
+	}
+
+	public DataObjectRingBuffer(int size) {
+		this(size, WaitStrategy.YIELD);
+	}
+
+	public int getSize() {
+		return entries.length;
+	}
+
+	/**
+	 * Claims the next sequence for the producer, waiting while the ring is full.
+	 */
+	public long next() {
+		return next(1);
+	}
+
+	/**
+	 * Claims the next n sequences for the producer, waiting while the ring is full, and
+	 * returns the highest; fill them all, then publish the highest.
+	 */
+	public long next(int n) {
+		if ( n < 1 || n > entries.length ) {
+			throw new IllegalArgumentException("can only claim 1 to " + entries.length + " entries: " + n);
+		}
+		long highest = claimed + n;
+		long wrapPoint = highest - entries.length;
+		if ( wrapPoint > cachedGating ) {
+			int attempt = 0;
+			long gating;
+			while ( wrapPoint > (gating = lowestConsumerSequence()) ) {
+				waitStrategy.idle(attempt++);
+			}
+			cachedGating = gating;
+		}
+		for ( long sequence = claimed + 1; sequence <= highest; sequence++ ) {
+			reset(sequence);
+		}
+		claimed = highest;
+		return highest;
+	}
+
+	/**
+	 * The entry of sequence, to fill once claimed or to read once published.
+	 */
+	public DataObject get(long sequence) {
+		return entries[(int) sequence & mask];
+	}
+
+	/**
+	 * Makes every claimed entry up to sequence visible to the consumers.
+	 */
+	public void publish(long sequence) {
+		cursor.lazySet(sequence);
+	}
+
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * A consumer that sees each entry once every consumer in upstream is done with it,
+	 * or as soon as it is published when upstream is empty.
+	 */
+	public synchronized Consumer newConsumer(Consumer... upstream) {
+		Sequence[] dependencies = new Sequence[upstream.length + 1];
+		dependencies[0] = cursor;
+		for ( int i = 0; i < upstream.length; i++ ) {
+			dependencies[i + 1] = upstream[i].sequence;
+		}
+		Consumer consumer = new Consumer(dependencies, cursor.get());
+		Consumer[] grown = new Consumer[consumers.length + 1];
+		System.arraycopy(consumers, 0, grown, 0, consumers.length);
+		grown[consumers.length] = consumer;
+		consumers = grown;
+		return consumer;
+	}
+
+	//the previous message in the slot goes back to the slot's pool, the entry comes straight out again
+	private void reset(long sequence) {
+		int index = (int) sequence & mask;
+		entries[index].release();
+		DataObject entry = pools[index].acquire();
+		entry.setSequence(sequence);
+		entries[index] = entry;
+	}
+
+	private long lowestConsumerSequence() {
+		long lowest = claimed;
+		for ( Consumer consumer : consumers ) {
+			long sequence = consumer.sequence.get();
+			if ( sequence < lowest ) {
+				lowest = sequence;
+			}
+		}
+		return lowest;
+	}
+
+	/**
+	 * One reader of the ring, to be used by one thread.
+	 */
+	public final class Consumer {
+		//last sequence handled
+		private final Sequence sequence;
+		//the cursor, then the sequences of the upstream consumers
+		private final Sequence[] dependencies;
+
+		Consumer(Sequence[] dependencies, long start) {
+			this.dependencies = dependencies;
+			this.sequence = new Sequence(start);
+		}
+
+		public long getSequence() {
+			return sequence.get();
+		}
+
+		/**
+		 * Waits for at least one entry, hands handler everything available and returns
+		 * how many entries it handled.
+		 */
+		public int consume(Handler handler) {
+			long next = sequence.get() + 1;
+			int attempt = 0;
+			long available;
+			while ( (available = available()) < next ) {
+				waitStrategy.idle(attempt++);
+			}
+			return handle(handler, next, available);
+		}
+
+		/**
+		 * Hands handler everything available without waiting, returns how many entries
+		 * it handled.
+		 */
+		public int poll(Handler handler) {
+			long next = sequence.get() + 1;
+			long available = available();
+			return available < next ? 0 : handle(handler, next, available);
+		}
+
+		private int handle(Handler handler, long next, long available) {
+			long handled = next - 1;
+			try {
+				for ( long current = next; current <= available; current++ ) {
+					handler.onDataObject(get(current), current, current == available);
+					handled = current;
+				}
+			} finally {
+				//an entry whose handler threw counts as handled, the ring must not stall on it
+				sequence.lazySet(handled == available ? handled : handled + 1);
+			}
+			return (int) (available - next + 1);
+		}
+
+		private long available() {
+			long available = dependencies[0].get();
+			for ( int i = 1; i < dependencies.length; i++ ) {
+				long upstream = dependencies[i].get();
+				if ( upstream < available ) {
+					available = upstream;
+				}
+			}
+			return available;
+		}
+	}
+
+	//padded so the cursor and the consumers' sequences do not share a cache line
+	@SuppressWarnings("unused")
+	static final class Sequence extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+		Sequence(long initial) {
+			super(initial);
+		}
+	}
+}
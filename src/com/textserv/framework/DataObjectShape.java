@@ -0,0 +1,231 @@
+package com.textserv.framework;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The key layout (key to slot index) of a compact DataObject.
+ * <p>
+ * Shared shapes are immutable and interned in a transition tree rooted at
+ * {@link #ROOT}: every DataObject built with the same keys in the same order ends
+ * up holding the same shape, so each instance only stores its value array.
+ * Adding a key moves to a child shape, removing one rebuilds the path from the root.
+ * <p>
+ * Key sets that look like data rather than a record layout (very many keys, or a
+ * shape with lots of different successors) get a private shape instead, which is
+ * owned by a single store and updated in place.
+ */
+final class DataObjectShape {
+
+	//below this size a linear scan is cheaper than hashing into the index
+	private static final int LINEAR_SCAN_LIMIT = 8;
+	//objects with more keys than this are treated as dictionaries
+	private static final int MAX_SHARED_SIZE = 64;
+	//distinct successors of one shape before new keys stop being shared
+	private static final int MAX_TRANSITIONS = 32;
+	//upper bound on the interned shapes so odd traffic cannot grow the tree forever
+	private static final int MAX_SHARED_SHAPES = 50000;
+
+	private static final AtomicInteger sharedShapeCount = new AtomicInteger();
+
+	static final DataObjectShape ROOT = new DataObjectShape(new String[8], 0, true);
+
+	//only [0, size) belongs to this shape, shared shapes may share the array with their successors
+	private String[] keys;
+	private int size;
+	//slot + 1 for each used bucket, 0 is an empty bucket
+	private int[] index;
+	private final boolean shared;
+
+	//successor shapes, the first one is kept in fields since most shapes only ever have one
+	private volatile String firstKey;
+	private volatile DataObjectShape firstSuccessor;
+	private volatile Map<String, DataObjectShape> successors;
+
+	private DataObjectShape(String[] keys, int size, boolean shared) {
+		this.keys = keys;
+		this.size = size;
+		this.shared = shared;
+		if ( size > LINEAR_SCAN_LIMIT ) {
+			rebuildIndex();
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	String keyAt(int slot) {
+		return keys[slot];
+	}
+
+	boolean isShared() {
+		return shared;
+	}
+
+	int indexOf(Object key) {
+		if ( !(key instanceof String) ) {
+			return -1;
+		}
+		if ( index == null ) {
+			for ( int i = 0; i < size; i++ ) {
+				String k = keys[i];
+				if ( k == key || k.equals(key) ) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int mask = index.length - 1;
+		int bucket = spread(key.hashCode()) & mask;
+		int entry;
+		while ( (entry = index[bucket]) != 0 ) {
+			String k = keys[entry - 1];
+			if ( k == key || k.equals(key) ) {
+				return entry - 1;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * The shape with key appended as slot size().  The key must not already be in
+	 * this shape.  Private shapes are updated in place and return themselves.
+	 */
+	DataObjectShape withKey(String key) {
+		if ( key == null ) {
+			throw new NullPointerException("DataObject keys cannot be null");
+		}
+		if ( !shared ) {
+			appendInPlace(key);
+			return this;
+		}
+		DataObjectShape successor = firstSuccessor;
+		if ( successor != null && key.equals(firstKey) ) {
+			return successor;
+		}
+		Map<String, DataObjectShape> more = successors;
+		if ( more != null ) {
+			successor = more.get(key);
+			if ( successor != null ) {
+				return successor;
+			}
+		}
+		return addSuccessor(key);
+	}
+
+	private synchronized DataObjectShape addSuccessor(String key) {
+		//another thread may have added it while we waited for the lock
+		if ( firstSuccessor != null && key.equals(firstKey) ) {
+			return firstSuccessor;
+		}
+		if ( successors != null && successors.containsKey(key) ) {
+			return successors.get(key);
+		}
+		int transitions = firstSuccessor == null ? 0 : 1 + (successors == null ? 0 : successors.size());
+		if ( size >= MAX_SHARED_SIZE || transitions >= MAX_TRANSITIONS || sharedShapeCount.get() >= MAX_SHARED_SHAPES ) {
+			DataObjectShape dictionary = privateCopy();
+			dictionary.appendInPlace(key);
+			return dictionary;
+		}
+		String[] successorKeys;
+		if ( size < keys.length && keys[size] == null ) {
+			//first successor claims the free slot and shares our key array
+			successorKeys = keys;
+		} else {
+			successorKeys = new String[Math.max(size + 1, Math.min(size * 2, MAX_SHARED_SIZE))];
+			System.arraycopy(keys, 0, successorKeys, 0, size);
+		}
+		successorKeys[size] = key;
+		DataObjectShape successor = new DataObjectShape(successorKeys, size + 1, true);
+		sharedShapeCount.incrementAndGet();
+		if ( firstSuccessor == null ) {
+			firstKey = key;
+			firstSuccessor = successor;
+		} else {
+			//copy on write so lookups never need the lock
+			Map<String, DataObjectShape> more = successors == null ? new HashMap<String, DataObjectShape>() : new HashMap<String, DataObjectShape>(successors);
+			more.put(key, successor);
+			successors = more;
+		}
+		return successor;
+	}
+
+	/**
+	 * The shape without the key at slot, later keys move down one slot.
+	 */
+	DataObjectShape withoutSlot(int slot) {
+		if ( !shared ) {
+			int tail = size - slot - 1;
+			if ( tail > 0 ) {
+				System.arraycopy(keys, slot + 1, keys, slot, tail);
+			}
+			keys[--size] = null;
+			if ( size > LINEAR_SCAN_LIMIT ) {
+				rebuildIndex();
+			} else {
+				index = null;
+			}
+			return this;
+		}
+		DataObjectShape shape = ROOT;
+		for ( int i = 0; i < size; i++ ) {
+			if ( i != slot ) {
+				shape = shape.withKey(keys[i]);
+			}
+		}
+		return shape;
+	}
+
+	/**
+	 * Shape to hand to a copy of a store, shared shapes are simply reused.
+	 */
+	DataObjectShape copyForStore() {
+		return shared ? this : privateCopy();
+	}
+
+	private DataObjectShape privateCopy() {
+		String[] privateKeys = new String[Math.max(size * 2, 8)];
+		System.arraycopy(keys, 0, privateKeys, 0, size);
+		return new DataObjectShape(privateKeys, size, false);
+	}
+
+	private void appendInPlace(String key) {
+		if ( size == keys.length ) {
+			keys = Arrays.copyOf(keys, size + (size >> 1) + 1);
+		}
+		keys[size++] = key;
+		if ( index != null ) {
+			if ( size * 2 > index.length ) {
+				rebuildIndex();
+			} else {
+				insertIntoIndex(size - 1);
+			}
+		} else if ( size > LINEAR_SCAN_LIMIT ) {
+			rebuildIndex();
+		}
+	}
+
+	private void rebuildIndex() {
+		index = new int[Integer.highestOneBit(size * 2) << 1];
+		for ( int i = 0; i < size; i++ ) {
+			insertIntoIndex(i);
+		}
+	}
+
+	private void insertIntoIndex(int slot) {
+		int mask = index.length - 1;
+		int bucket = spread(keys[slot].hashCode()) & mask;
+		while ( index[bucket] != 0 ) {
+			bucket = (bucket + 1) & mask;
+		}
+		index[bucket] = slot + 1;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,66 @@
+package com.textserv.framework;
+
+/**
+ * Field types recorded in a DataObject's "MetaData" when setGenerateMetaData(true)
+ * is on.  The type name is what the MetaData block holds once encoded, in memory a
+ * compact MetaData object only keeps the one byte code per field.
+ */
+public enum DataObjectType {
+	STRING("string"),
+	BOOLEAN("boolean"),
+	BYTE("byte"),
+	CHAR("char"),
+	DOUBLE("double"),
+	FLOAT("float"),
+	INT("int"),
+	LONG("long"),
+	SHORT("short"),
+	BINARY("binary"),
+	DATE("date"),
+	DATA_OBJECT("do"),
+	DATA_OBJECT_LIST("doList"),
+	INT_LIST("iList"),
+	FLOAT_LIST("fList"),
+	DATE_LIST("dtList"),
+	STRING_LIST("sList"),
+	LONG_LIST("lList"),
+	DOUBLE_LIST("dList");
+
+	private static final DataObjectType[] byCode = values();
+
+	private final String typeName;
+
+	private DataObjectType(String typeName) {
+		this.typeName = typeName;
+	}
+
+	public String getTypeName() {
+		return typeName;
+	}
+
+	public byte getCode() {
+		return (byte) ordinal();
+	}
+
+	public static DataObjectType forCode(int code) {
+		return code >= 0 && code < byCode.length ? byCode[code] : null;
+	}
+
+	/**
+	 * The type with this MetaData name, null for names that are not one of ours.
+	 */
+	public static DataObjectType forTypeName(String typeName) {
+		if ( typeName != null ) {
+			for ( DataObjectType type : byCode ) {
+				if ( type.typeName.equals(typeName) ) {
+					return type;
+				}
+			}
+		}
+		return null;
+	}
+
+	public String toString() {
+		return typeName;
+	}
+}
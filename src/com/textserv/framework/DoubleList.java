@@ -0,0 +1,141 @@
+package com.textserv.framework;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A List of Double kept in a double[].  DataObject stores it as is, so
+ * getDoubleList does not parse anything, and the codecs write the doubles
+ * without boxing them.  Use the getDouble/setDouble/addDouble methods to stay unboxed.
+ */
+public final class DoubleList extends PrimitiveList<Double> {
+
+	private static final long serialVersionUID = 1L;
+
+	private double[] values;
+
+	public DoubleList() {
+		this(10);
+	}
+
+	public DoubleList(int capacity) {
+		values = new double[capacity];
+	}
+
+	public DoubleList(double[] values) {
+		this.values = values.clone();
+		size = values.length;
+	}
+
+	//elements that are Numbers are converted, anything else is parsed from its string form
+	static DoubleList from(List<?> list) {
+		DoubleList doubles = new DoubleList(list.size());
+		for ( int i = 0, size = list.size(); i < size; i++ ) {
+			Object element = list.get(i);
+			doubles.values[i] = element instanceof Number ? ((Number) element).doubleValue() : Double.parseDouble(element.toString());
+		}
+		doubles.size = list.size();
+		return doubles;
+	}
+
+	public double getDouble(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	public double setDouble(int index, double value) {
+		checkWritable();
+		checkIndex(index);
+		double previous = values[index];
+		values[index] = value;
+		return previous;
+	}
+
+	public void addDouble(double value) {
+		addDouble(size, value);
+	}
+
+	public void addDouble(int index, double value) {
+		checkWritable();
+		checkPositionIndex(index);
+		if ( size == values.length ) {
+			values = Arrays.copyOf(values, grownCapacity(values.length, size + 1));
+		}
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	public double removeDouble(int index) {
+		checkWritable();
+		checkIndex(index);
+		double previous = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	public double[] toDoubleArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	String elementText(int index) {
+		return Double.toString(getDouble(index));
+	}
+
+	public DoubleList copy() {
+		DoubleList copy = new DoubleList(size);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	public Double get(int index) {
+		return getDouble(index);
+	}
+
+	public Double set(int index, Double value) {
+		return setDouble(index, value);
+	}
+
+	public void add(int index, Double value) {
+		addDouble(index, value);
+	}
+
+	public Double remove(int index) {
+		return removeDouble(index);
+	}
+
+	public void clear() {
+		checkWritable();
+		size = 0;
+		modCount++;
+	}
+
+	public boolean equals(Object o) {
+		if ( o instanceof DoubleList ) {
+			DoubleList that = (DoubleList) o;
+			if ( size != that.size ) {
+				return false;
+			}
+			for ( int i = 0; i < size; i++ ) {
+				if ( Double.doubleToLongBits(values[i]) != Double.doubleToLongBits(that.values[i]) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		int hash = 1;
+		for ( int i = 0; i < size; i++ ) {
+			long bits = Double.doubleToLongBits(values[i]);
+			hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+		}
+		return hash;
+	}
+}
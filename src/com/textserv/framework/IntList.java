@@ -0,0 +1,140 @@
+package com.textserv.framework;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A List of Integer kept in an int[].  DataObject stores it as is, so
+ * getIntList/getIntegerList do not parse anything, and the codecs write the ints
+ * without boxing them.  Use the getInt/setInt/addInt methods to stay unboxed.
+ */
+public final class IntList extends PrimitiveList<Integer> {
+
+	private static final long serialVersionUID = 1L;
+
+	private int[] values;
+
+	public IntList() {
+		this(10);
+	}
+
+	public IntList(int capacity) {
+		values = new int[capacity];
+	}
+
+	public IntList(int[] values) {
+		this.values = values.clone();
+		size = values.length;
+	}
+
+	//elements that are Numbers are narrowed, anything else is parsed from its string form
+	static IntList from(List<?> list) {
+		IntList ints = new IntList(list.size());
+		for ( int i = 0, size = list.size(); i < size; i++ ) {
+			Object element = list.get(i);
+			ints.values[i] = element instanceof Number ? ((Number) element).intValue() : Integer.parseInt(element.toString());
+		}
+		ints.size = list.size();
+		return ints;
+	}
+
+	public int getInt(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	public int setInt(int index, int value) {
+		checkWritable();
+		checkIndex(index);
+		int previous = values[index];
+		values[index] = value;
+		return previous;
+	}
+
+	public void addInt(int value) {
+		addInt(size, value);
+	}
+
+	public void addInt(int index, int value) {
+		checkWritable();
+		checkPositionIndex(index);
+		if ( size == values.length ) {
+			values = Arrays.copyOf(values, grownCapacity(values.length, size + 1));
+		}
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	public int removeInt(int index) {
+		checkWritable();
+		checkIndex(index);
+		int previous = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	public int[] toIntArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	String elementText(int index) {
+		return Integer.toString(getInt(index));
+	}
+
+	public IntList copy() {
+		IntList copy = new IntList(size);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	public Integer set(int index, Integer value) {
+		return setInt(index, value);
+	}
+
+	public void add(int index, Integer value) {
+		addInt(index, value);
+	}
+
+	public Integer remove(int index) {
+		return removeInt(index);
+	}
+
+	public void clear() {
+		checkWritable();
+		size = 0;
+		modCount++;
+	}
+
+	public boolean equals(Object o) {
+		if ( o instanceof IntList ) {
+			IntList that = (IntList) o;
+			if ( size != that.size ) {
+				return false;
+			}
+			for ( int i = 0; i < size; i++ ) {
+				if ( values[i] != that.values[i] ) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		int hash = 1;
+		for ( int i = 0; i < size; i++ ) {
+			hash = 31 * hash + values[i];
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,140 @@
+package com.textserv.framework;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A List of Long kept in a long[].  DataObject stores it as is, so
+ * getLongList does not parse anything, and the codecs write the longs
+ * without boxing them.  Use the getLong/setLong/addLong methods to stay unboxed.
+ */
+public final class LongList extends PrimitiveList<Long> {
+
+	private static final long serialVersionUID = 1L;
+
+	private long[] values;
+
+	public LongList() {
+		this(10);
+	}
+
+	public LongList(int capacity) {
+		values = new long[capacity];
+	}
+
+	public LongList(long[] values) {
+		this.values = values.clone();
+		size = values.length;
+	}
+
+	//elements that are Numbers are narrowed, anything else is parsed from its string form
+	static LongList from(List<?> list) {
+		LongList longs = new LongList(list.size());
+		for ( int i = 0, size = list.size(); i < size; i++ ) {
+			Object element = list.get(i);
+			longs.values[i] = element instanceof Number ? ((Number) element).longValue() : Long.parseLong(element.toString());
+		}
+		longs.size = list.size();
+		return longs;
+	}
+
+	public long getLong(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	public long setLong(int index, long value) {
+		checkWritable();
+		checkIndex(index);
+		long previous = values[index];
+		values[index] = value;
+		return previous;
+	}
+
+	public void addLong(long value) {
+		addLong(size, value);
+	}
+
+	public void addLong(int index, long value) {
+		checkWritable();
+		checkPositionIndex(index);
+		if ( size == values.length ) {
+			values = Arrays.copyOf(values, grownCapacity(values.length, size + 1));
+		}
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	public long removeLong(int index) {
+		checkWritable();
+		checkIndex(index);
+		long previous = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	public long[] toLongArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	String elementText(int index) {
+		return Long.toString(getLong(index));
+	}
+
+	public LongList copy() {
+		LongList copy = new LongList(size);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	public Long set(int index, Long value) {
+		return setLong(index, value);
+	}
+
+	public void add(int index, Long value) {
+		addLong(index, value);
+	}
+
+	public Long remove(int index) {
+		return removeLong(index);
+	}
+
+	public void clear() {
+		checkWritable();
+		size = 0;
+		modCount++;
+	}
+
+	public boolean equals(Object o) {
+		if ( o instanceof LongList ) {
+			LongList that = (LongList) o;
+			if ( size != that.size ) {
+				return false;
+			}
+			for ( int i = 0; i < size; i++ ) {
+				if ( values[i] != that.values[i] ) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		int hash = 1;
+		for ( int i = 0; i < size; i++ ) {
+			hash = 31 * hash + (int) (values[i] ^ (values[i] >>> 32));
+		}
+		return hash;
+	}
+}
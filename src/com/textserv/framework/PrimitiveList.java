@@ -0,0 +1,68 @@
+package com.textserv.framework;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * What IntList, LongList and DoubleList have in common: the size, the read only
+ * flag of lists parsed from another stored form, the text form of the elements and
+ * the index checks.
+ */
+abstract class PrimitiveList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	int size = 0;
+	private boolean readOnly = false;
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * A list DataObject parsed from a list of strings is read only, changing it would
+	 * not change the stored strings, and so is a list in a frozen DataObject.  Set a
+	 * copy to change the field.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * A writable copy of this list.
+	 */
+	public abstract PrimitiveList<E> copy();
+
+	/**
+	 * The element at index as the codecs write it, and as a decoded list holds it.
+	 */
+	abstract String elementText(int index);
+
+	void makeReadOnly() {
+		readOnly = true;
+	}
+
+	void checkWritable() {
+		if ( readOnly ) {
+			throw new UnsupportedOperationException("This list is read only, set a copy instead");
+		}
+	}
+
+	void checkIndex(int index) {
+		if ( index < 0 || index >= size ) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	void checkPositionIndex(int index) {
+		if ( index < 0 || index > size ) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	static int grownCapacity(int capacity, int needed) {
+		int grown = capacity + (capacity >> 1) + 1;
+		return grown < needed ? needed : grown;
+	}
+}
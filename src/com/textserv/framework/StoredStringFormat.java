@@ -0,0 +1,142 @@
+package com.textserv.framework;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * The double and date formats of store_as_strings mode, "#################0.00000000"
+ * and "yyyy-MM-dd HH:mm:ss", written without going through DecimalFormat or
+ * SimpleDateFormat for the usual values, doubles are also read back directly.
+ * Anything the fast paths are not sure about (near ties at the 8th decimal, huge or
+ * non finite doubles, years outside 1000-9999, text not exactly in the format) goes
+ * to the real formatter, so the output is identical.  Dates are read by DataObjectDateParsers.
+ * <p>
+ * Not thread safe, use {@link #forThread()}.
+ */
+final class StoredStringFormat {
+
+	static final String DOUBLE_PATTERN = "#################0.00000000";
+	static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+	private static final int DECIMALS = 8;
+	private static final double SCALE = 1e8;
+	//9e15 is below 2^53, so every scaled value up to here is an exact long
+	private static final double MAX_FAST_SCALED = 9e15;
+	private static final int DATE_LENGTH = DATE_PATTERN.length();
+
+	private static final ThreadLocal<StoredStringFormat> formatHolder = new ThreadLocal<StoredStringFormat>();
+
+	private final DecimalFormat decimalFormat = new DecimalFormat(DOUBLE_PATTERN);
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+	//same time zone and calendar rules as dateFormat
+	private final Calendar calendar = (Calendar) dateFormat.getCalendar().clone();
+	//the fast double path only writes ascii digits, '.' and '-'
+	private final boolean asciiSymbols;
+	private final char[] buffer = new char[32];
+
+	private StoredStringFormat() {
+		DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+		asciiSymbols = symbols.getDecimalSeparator() == '.' && symbols.getMinusSign() == '-' && symbols.getZeroDigit() == '0';
+	}
+
+	static StoredStringFormat forThread() {
+		StoredStringFormat format = formatHolder.get();
+		if ( format == null ) {
+			format = new StoredStringFormat();
+			formatHolder.set(format);
+		}
+		return format;
+	}
+
+	String formatDouble(double value) {
+		double scaled = value * SCALE;
+		if ( !asciiSymbols || !(Math.abs(scaled) < MAX_FAST_SCALED) ) {
+			//NaN, infinities and huge values
+			return decimalFormat.format(value);
+		}
+		double rounded = Math.rint(scaled);
+		double fraction = scaled - Math.floor(scaled);
+		if ( Math.abs(fraction - 0.5) <= 2 * Math.ulp(scaled) ) {
+			//too close to a tie for the scaled product to decide which way DecimalFormat rounds
+			return decimalFormat.format(value);
+		}
+		return formatScaled(value, (long) rounded);
+	}
+
+	private String formatScaled(double value, long scaled) {
+		int position = buffer.length;
+		long magnitude = Math.abs(scaled);
+		for ( int i = 0; i < DECIMALS; i++ ) {
+			buffer[--position] = (char) ('0' + (magnitude % 10));
+			magnitude /= 10;
+		}
+		buffer[--position] = '.';
+		do {
+			buffer[--position] = (char) ('0' + (magnitude % 10));
+			magnitude /= 10;
+		} while ( magnitude > 0 );
+		//DecimalFormat keeps the sign of negative values that round to zero, and of -0.0
+		if ( value < 0 || (value == 0 && 1 / value < 0) ) {
+			buffer[--position] = '-';
+		}
+		return new String(buffer, position, buffer.length - position);
+	}
+
+	/**
+	 * Parses what formatDouble writes, other text goes to Double.valueOf.
+	 */
+	double parseDouble(String text) {
+		int length = text.length();
+		int start = length > 0 && text.charAt(0) == '-' ? 1 : 0;
+		int point = length - DECIMALS - 1;
+		//at most 15 digits, so the scaled value is exact and one division rounds it correctly
+		if ( point > start && point - start + DECIMALS <= 15 && text.charAt(point) == '.' ) {
+			long scaled = 0;
+			for ( int i = start; i < length; i++ ) {
+				if ( i == point ) {
+					continue;
+				}
+				int digit = text.charAt(i) - '0';
+				if ( digit < 0 || digit > 9 ) {
+					return Double.valueOf(text).doubleValue();
+				}
+				scaled = scaled * 10 + digit;
+			}
+			double magnitude = scaled / SCALE;
+			return start == 1 ? -magnitude : magnitude;
+		}
+		return Double.valueOf(text).doubleValue();
+	}
+
+	String formatDate(Date date) {
+		calendar.setTime(date);
+		int year = calendar.get(Calendar.YEAR);
+		if ( year < 1000 || year > 9999 || calendar.get(Calendar.ERA) != GregorianCalendar.AD ) {
+			return dateFormat.format(date);
+		}
+		char[] chars = buffer;
+		writeDigits(chars, 0, year, 4);
+		chars[4] = '-';
+		writeDigits(chars, 5, calendar.get(Calendar.MONTH) + 1, 2);
+		chars[7] = '-';
+		writeDigits(chars, 8, calendar.get(Calendar.DAY_OF_MONTH), 2);
+		chars[10] = ' ';
+		writeDigits(chars, 11, calendar.get(Calendar.HOUR_OF_DAY), 2);
+		chars[13] = ':';
+		writeDigits(chars, 14, calendar.get(Calendar.MINUTE), 2);
+		chars[16] = ':';
+		writeDigits(chars, 17, calendar.get(Calendar.SECOND), 2);
+		return new String(chars, 0, DATE_LENGTH);
+	}
+
+	private static void writeDigits(char[] chars, int offset, int value, int width) {
+		for ( int i = offset + width - 1; i >= offset; i-- ) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+}
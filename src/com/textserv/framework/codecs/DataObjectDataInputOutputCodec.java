@@ -1,15 +1,22 @@
 package com.textserv.framework.codecs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import com.textserv.framework.BinaryValue;
 import com.textserv.framework.DataObject;
 import com.textserv.framework.DataObjectException;
+import com.textserv.framework.DoubleList;
+import com.textserv.framework.IntList;
+import com.textserv.framework.LongList;
 
 public class DataObjectDataInputOutputCodec {
 	
@@ -19,6 +26,8 @@ public class DataObjectDataInputOutputCodec {
 	static final char CLOSE_DO = '}';
 	static final char SPACE = ' ';
 	static final char STRING_IND = '\001';
+	//followed by the length as an int, the bytes and another BINARY_IND
+	static final char BINARY_IND = '\002';
 	static final char OPEN_LIST = '[';
 	static final char CLOSE_LIST = ']';
 	static final char endEncoding = '~';
@@ -27,22 +36,68 @@ public class DataObjectDataInputOutputCodec {
 		encode(map, out, true);
 	}
 
+	/**
+	 * The encoding of map, always encoded afresh, see DataObject.toBinaryEncoded()
+	 * for the form a frozen DataObject keeps.
+	 */
+	public static byte[] encodeToBytes(DataObject map) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		encodeFields(map, out, true, null);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
 	private static void encode(DataObject map, DataOutput out, boolean endEncodingIndicator ) throws IOException {
+		encode(map, out, endEncodingIndicator, null);
+	}
+
+	//emittedStamp is the label stamp the enclosing object wrote once, objects inheriting it leave its fields out
+	private static void encode(DataObject map, DataOutput out, boolean endEncodingIndicator, DataObject emittedStamp ) throws IOException {
+		if ( map.isFrozen() ) {
+			//encoded once and kept by the frozen object, nested it goes without the end indicator
+			byte[] encoded = map.toBinaryEncoded();
+			out.write(encoded, 0, endEncodingIndicator ? encoded.length : encoded.length - 2);
+			return;
+		}
+		encodeFields(map, out, endEncodingIndicator, emittedStamp);
+	}
+
+	private static void encodeFields(DataObject map, DataOutput out, boolean endEncodingIndicator, DataObject emittedStamp ) throws IOException {
 		out.writeChar(OPEN_DO);
-		Iterator i = map.entrySet().iterator();
+		DataObject stamp = null;
+		if ( !DataObject.isMaterializeLabelStamps() && map.isStampNeeded() && map.getLabelStamp() != null ) {
+			stamp = map.getLabelStamp();
+		}
+		Iterator<Map.Entry<String, Object>> i = map.fieldIterator();
+		if ( map.getInheritedStamp() != null && map.getInheritedStamp() != emittedStamp ) {
+			i = concat(i, map.getInheritedFields().entrySet().iterator());
+		}
+		if ( stamp != null ) {
+			//first, so the decoder has it before the objects it stamps
+			i = concat(Collections.singletonMap(DataObject.DO_LABEL_STAMP, (Object) stamp).entrySet().iterator(), i);
+		}
 		boolean hasNext = i.hasNext();
 		while (hasNext) {
-			Map.Entry e = (Map.Entry) (i.next());
+			Map.Entry<String, Object> e = i.next();
 			Object key = e.getKey();
 			Object value = e.getValue();
 			encodeString(key.toString(), out);
 			out.writeChar(RECORD_SEP);
 			if (value instanceof String) {
 				encodeString((String) value, out);
+			} else if (value instanceof BinaryValue) {
+				encodeBinary((BinaryValue) value, out);
+			} else if (value instanceof IntList) {
+				wrapIntList((IntList)value, out);
+			} else if (value instanceof LongList) {
+				wrapLongList((LongList)value, out);
+			} else if (value instanceof DoubleList) {
+				wrapDoubleList((DoubleList)value, out);
 			} else if (value instanceof List) {
 				wrapList((List)value, out);
 			} else if (value instanceof DataObject) {
-				encode((DataObject)value, out, false);
+				encode((DataObject)value, out, false, stamp);
 			}
 			hasNext = i.hasNext();
 			if (hasNext) {
@@ -55,12 +110,40 @@ public class DataObjectDataInputOutputCodec {
 		}
 	}
 
+	private static Iterator<Map.Entry<String, Object>> concat(final Iterator<Map.Entry<String, Object>> first, final Iterator<Map.Entry<String, Object>> second) {
+		return new Iterator<Map.Entry<String, Object>>() {
+			public boolean hasNext() {
+				return first.hasNext() || second.hasNext();
+			}
+
+			public Map.Entry<String, Object> next() {
+				return first.hasNext() ? first.next() : second.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	private static void encodeString(String s, DataOutput out) throws IOException {
 		out.writeChar(STRING_IND);
 		out.writeUTF(s);
 		out.writeChar(STRING_IND);
 	}
 
+	private static void encodeBinary(BinaryValue value, DataOutput out) throws IOException {
+		out.writeChar(BINARY_IND);
+		out.writeInt(value.length());
+		if (out instanceof OutputStream) {
+			//copies straight from the value's bytes
+			value.writeTo((OutputStream) out);
+		} else {
+			out.write(value.toByteArray());
+		}
+		out.writeChar(BINARY_IND);
+	}
+
 	protected static void wrapList(List list, DataOutput out) throws IOException {
 		out.writeChar(OPEN_LIST);
 		Iterator i = list.iterator();
@@ -72,6 +155,8 @@ public class DataObjectDataInputOutputCodec {
 				encodeString((String)o, out);
 			} else if ( o instanceof DataObject ) {
 				encode((DataObject)o, out, false);
+			} else if ( o instanceof BinaryValue ) {
+				encodeBinary((BinaryValue)o, out);
 			}
 			hasNext = i.hasNext();
 			if (hasNext) {
@@ -81,6 +166,59 @@ public class DataObjectDataInputOutputCodec {
 		out.writeChar(CLOSE_LIST);
 	}
 	
+	//numbers go out as the strings a list of strings would hold, they are read back as one
+	protected static void wrapIntList(IntList list, DataOutput out) throws IOException {
+		out.writeChar(OPEN_LIST);
+		byte[] digits = new byte[20];
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) {
+				out.writeChar(GROUP_SEP);
+			}
+			encodeNumber(list.getInt(i), digits, out);
+		}
+		out.writeChar(CLOSE_LIST);
+	}
+
+	protected static void wrapLongList(LongList list, DataOutput out) throws IOException {
+		out.writeChar(OPEN_LIST);
+		byte[] digits = new byte[20];
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) {
+				out.writeChar(GROUP_SEP);
+			}
+			encodeNumber(list.getLong(i), digits, out);
+		}
+		out.writeChar(CLOSE_LIST);
+	}
+
+	protected static void wrapDoubleList(DoubleList list, DataOutput out) throws IOException {
+		out.writeChar(OPEN_LIST);
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) {
+				out.writeChar(GROUP_SEP);
+			}
+			encodeString(Double.toString(list.getDouble(i)), out);
+		}
+		out.writeChar(CLOSE_LIST);
+	}
+
+	//same bytes as encodeString(Long.toString(value)), writeUTF of ascii digits is a length and one byte per digit
+	private static void encodeNumber(long value, byte[] digits, DataOutput out) throws IOException {
+		int position = digits.length;
+		long remaining = value;
+		do {
+			digits[--position] = (byte) ('0' + Math.abs(remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (value < 0) {
+			digits[--position] = '-';
+		}
+		out.writeChar(STRING_IND);
+		out.writeShort(digits.length - position);
+		out.write(digits, position, digits.length - position);
+		out.writeChar(STRING_IND);
+	}
+	
 	public static DataObject decode(DataInput in) throws DataObjectException, IOException {
 		DataObject dataObject = new DataObject();
 		decode(in, dataObject);
@@ -123,6 +261,13 @@ public class DataObjectDataInputOutputCodec {
 					}
 					state.handleString(stringValue);
 					break;
+				case BINARY_IND:
+					BinaryValue binaryValue = BinaryValue.read(in, in.readInt());
+					if (in.readChar() != BINARY_IND) {
+						throw new DataObjectException("Problem parsing binary value because it had no closing \002 value");
+					}
+					state.handleBinary(binaryValue);
+					break;
 				case RECORD_SEP:
 					nextChar = state.onEquals(in);
 					readNext = false;
@@ -147,13 +292,14 @@ public class DataObjectDataInputOutputCodec {
 		}
 
 		public void startMap() {
-			StackElement mapElement = new StackElement(new DataObject());
+			//from the root's pool when it was acquired from one
+			StackElement mapElement = new StackElement(root.newChild());
 			mapElement.parentElement = currentStackElement;
 			currentStackElement = mapElement;
 		}
 
 		public void startList() {
-			StackElement listElement = new StackElement(new ArrayList());
+			StackElement listElement = new StackElement(root.newList());
 			listElement.parentElement = currentStackElement;
 			currentStackElement = listElement;
 		}
@@ -171,13 +317,20 @@ public class DataObjectDataInputOutputCodec {
 		public void endMap() throws DataObjectException {
 			if (currentStackElement.lastValueType == StackElement.STRING_TYPE) {
 				currentStackElement.currentDO.setString(currentStackElement.currentKey.toString(), currentStackElement.currentStringValue.toString());
+			} else if (currentStackElement.lastValueType == StackElement.BINARY_TYPE) {
+				currentStackElement.currentDO.setBinary(currentStackElement.currentKey, currentStackElement.currentBinaryValue);
 			}
 			StackElement parent = currentStackElement.parentElement;
 			if (parent == null) {
 				return;       //reached top level
 			}
 			if (parent.type == StackElement.MAP_TYPE) {
-				parent.currentDO.setDataObject(parent.currentKey.toString(), currentStackElement.currentDO);
+				if (DataObject.DO_LABEL_STAMP.equals(parent.currentKey.toString())) {
+					//a stamp written once, the objects that follow inherit it again as they are set
+					parent.currentDO.setLabelStampObjects(currentStackElement.currentDO);
+				} else {
+					parent.currentDO.setDataObject(parent.currentKey.toString(), currentStackElement.currentDO);
+				}
 			} else {
 				//List, just add it to list
 				parent.currentList.add(currentStackElement.currentDO);
@@ -199,8 +352,11 @@ public class DataObjectDataInputOutputCodec {
 			} else {
 				if ( listToEnd.get(0) instanceof String ) {
 					parent.currentDO.setStringList(parent.currentKey.toString(), listToEnd);
-				} else {
+				} else if ( listToEnd.get(0) instanceof DataObject ) {
 					parent.currentDO.setDataObjectList(parent.currentKey.toString(), listToEnd);					
+				} else {
+					//binary values, there is no typed setter for a list of them
+					parent.currentDO.put(parent.currentKey.toString(), listToEnd);
 				}
 			}
 			currentStackElement = parent;
@@ -224,6 +380,9 @@ public class DataObjectDataInputOutputCodec {
 				case '[':
 					currentStackElement.lastValueType = StackElement.LIST_TYPE;
 					break;
+				case BINARY_IND:
+					currentStackElement.lastValueType = StackElement.BINARY_TYPE;
+					break;
 				default:
 					currentStackElement.lastValueType = StackElement.STRING_TYPE;
 			}
@@ -239,6 +398,8 @@ public class DataObjectDataInputOutputCodec {
 			if (currentStackElement.type == StackElement.MAP_TYPE) {
 				if (currentStackElement.lastValueType == StackElement.STRING_TYPE) {
 					currentStackElement.currentDO.setString(currentStackElement.currentKey.toString(), currentStackElement.currentStringValue.toString());
+				} else if (currentStackElement.lastValueType == StackElement.BINARY_TYPE) {
+					currentStackElement.currentDO.setBinary(currentStackElement.currentKey, currentStackElement.currentBinaryValue);
 				}
 			}
 			currentStackElement.resetKey();
@@ -261,12 +422,22 @@ public class DataObjectDataInputOutputCodec {
 				}
 			}
 		}
+
+		@SuppressWarnings("unchecked")
+		public void handleBinary(BinaryValue value) {
+			if (currentStackElement.type == StackElement.LIST_TYPE) {
+				currentStackElement.currentList.add(value);
+			} else {
+				currentStackElement.currentBinaryValue = value;
+			}
+		}
 	}
 
 	static class StackElement {
 		static final int MAP_TYPE = 1;
 		static final int LIST_TYPE = 2;
 		static final int STRING_TYPE = 3;
+		static final int BINARY_TYPE = 4;
 
 		List currentList = null;
 		DataObject currentDO = null;
@@ -276,6 +447,7 @@ public class DataObjectDataInputOutputCodec {
 		int type = 0;
 		String currentKey = null;
 		String currentStringValue = null;
+		BinaryValue currentBinaryValue = null;
 		Object lastValue;
 		int lastValueType = -1;
 
@@ -293,6 +465,7 @@ public class DataObjectDataInputOutputCodec {
 			this.keyFinished = false;
 			this.currentKey = null;
 			this.currentStringValue = null;
+			this.currentBinaryValue = null;
 		}
 	}
 }
@@ -0,0 +1,404 @@
+package com.textserv.framework.codecs;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.minidev.json.JSONStyle;
+
+import com.textserv.framework.BinaryValue;
+import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectException;
+import com.textserv.framework.DataObject.StringEncodedDataObjectList;
+import com.textserv.framework.DoubleList;
+import com.textserv.framework.IntList;
+import com.textserv.framework.LongList;
+
+/**
+ * Writes a DataObject as UTF-8 JSON straight into a ByteBuffer, heap or direct, the same
+ * bytes as DataObjectJSONCodec.toJSONString(dO, false).getBytes("UTF-8") without the
+ * String.  Strings, whole numbers, booleans, binary values and every container are
+ * encoded in place, so a reused encoder allocates nothing for them; doubles, dates and
+ * other values go through their usual text form.
+ * <p>
+ * An encoder keeps state while it writes, use one per thread.
+ */
+public final class DataObjectJSONByteEncoder {
+
+	/**
+	 * Called when the buffer is full part way through an object: drain or replace it and
+	 * return the buffer to carry on writing into, with space remaining.
+	 */
+	public interface Overflow {
+		ByteBuffer onOverflow(ByteBuffer full) throws IOException;
+	}
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] LONG_MIN = { '-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7', '7', '5', '8', '0', '8' };
+
+	private ByteBuffer out;
+	private Overflow overflow;
+	private final byte[] digits = new byte[20];
+	//one group of base64 that did not fit in what was left of out
+	private final ByteBuffer base64Group = ByteBuffer.allocate(4);
+	//text of the values written through their usual JSON form
+	private final StringBuilder scratch = new StringBuilder();
+	//a high surrogate appended through chars, waiting for its low surrogate
+	private char pendingHigh = 0;
+	private final Appendable chars = new Appendable() {
+		public Appendable append(CharSequence csq) {
+			return append(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+		}
+
+		public Appendable append(CharSequence csq, int start, int end) {
+			if ( csq == null ) {
+				return append("null", 0, 4);
+			}
+			for ( int i = start; i < end; i++ ) {
+				append(csq.charAt(i));
+			}
+			return this;
+		}
+
+		public Appendable append(char c) {
+			if ( pendingHigh != 0 ) {
+				char high = pendingHigh;
+				pendingHigh = 0;
+				if ( Character.isLowSurrogate(c) ) {
+					putCodePoint(Character.toCodePoint(high, c));
+					return this;
+				}
+				put((byte) '?');
+			}
+			if ( Character.isHighSurrogate(c) ) {
+				pendingHigh = c;
+			} else {
+				putChar(c);
+			}
+			return this;
+		}
+	};
+
+	/**
+	 * Writes dO at the position of out.  Returns false, with the position of out back where
+	 * it was, when it does not fit.
+	 */
+	public boolean encode(DataObject dO, ByteBuffer out) throws DataObjectException {
+		int start = out.position();
+		try {
+			encode(dO, out, null);
+			return true;
+		} catch ( BufferOverflowException e ) {
+			out.position(start);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes dO at the position of out, handing full buffers to overflow.  Returns the
+	 * buffer the last bytes went into.
+	 */
+	public ByteBuffer encode(DataObject dO, ByteBuffer out, Overflow overflow) throws DataObjectException {
+		this.out = out;
+		this.overflow = overflow;
+		this.pendingHigh = 0;
+		try {
+			writeObject(dO, null);
+			flushPendingHigh();
+			return this.out;
+		} catch ( IOException e ) {
+			throw new DataObjectException(e);
+		} finally {
+			this.out = null;
+			this.overflow = null;
+			scratch.setLength(0);
+		}
+	}
+
+	//mirrors DataObjectJSONCodec.writeJSON, emittedStamp is the label stamp the enclosing object wrote once
+	private void writeObject(DataObject dO, DataObject emittedStamp) throws IOException {
+		if ( dO == null ) {
+			put(NULL);
+			return;
+		}
+		boolean first = true;
+		put((byte) '{');
+		DataObject stamp = null;
+		if ( !DataObject.isMaterializeLabelStamps() && dO.isStampNeeded() && dO.getLabelStamp() != null ) {
+			stamp = dO.getLabelStamp();
+			writeKV(DataObject.DO_LABEL_STAMP, stamp, null);
+			first = false;
+		}
+		for ( Iterator<Map.Entry<String, Object>> fields = dO.fieldIterator(); fields.hasNext(); ) {
+			Map.Entry<String, Object> entry = fields.next();
+			if ( first ) {
+				first = false;
+			} else {
+				put((byte) ',');
+			}
+			writeKV(entry.getKey(), entry.getValue(), stamp);
+		}
+		if ( dO.getInheritedStamp() != null && dO.getInheritedStamp() != emittedStamp ) {
+			for ( Map.Entry<String, Object> entry : dO.getInheritedFields().entrySet() ) {
+				if ( first ) {
+					first = false;
+				} else {
+					put((byte) ',');
+				}
+				writeKV(entry.getKey(), entry.getValue(), null);
+			}
+		}
+		put((byte) '}');
+	}
+
+	private void writeKV(String key, Object value, DataObject emittedStamp) throws IOException {
+		if ( key == null ) {
+			put(NULL);
+		} else {
+			writeString(key);
+		}
+		put((byte) ':');
+		writeValue(value, emittedStamp);
+	}
+
+	private void writeValue(Object value, DataObject emittedStamp) throws IOException {
+		if ( value == null ) {
+			put(NULL);
+		} else if ( value instanceof String ) {
+			writeString((String) value);
+		} else if ( value instanceof DataObject ) {
+			writeObject((DataObject) value, emittedStamp);
+		} else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+			writeLong(((Number) value).longValue());
+		} else if ( value instanceof Boolean ) {
+			put(((Boolean) value).booleanValue() ? TRUE : FALSE);
+		} else if ( value instanceof BinaryValue ) {
+			writeBase64((BinaryValue) value);
+		} else if ( value instanceof IntList ) {
+			IntList list = (IntList) value;
+			put((byte) '[');
+			for ( int i = 0; i < list.size(); i++ ) {
+				if ( i > 0 ) {
+					put((byte) ',');
+				}
+				put((byte) '"');
+				writeLong(list.getInt(i));
+				put((byte) '"');
+			}
+			put((byte) ']');
+		} else if ( value instanceof LongList ) {
+			LongList list = (LongList) value;
+			put((byte) '[');
+			for ( int i = 0; i < list.size(); i++ ) {
+				if ( i > 0 ) {
+					put((byte) ',');
+				}
+				put((byte) '"');
+				writeLong(list.getLong(i));
+				put((byte) '"');
+			}
+			put((byte) ']');
+		} else if ( value instanceof DoubleList ) {
+			DoubleList list = (DoubleList) value;
+			put((byte) '[');
+			for ( int i = 0; i < list.size(); i++ ) {
+				if ( i > 0 ) {
+					put((byte) ',');
+				}
+				put((byte) '"');
+				writeAscii(Double.toString(list.getDouble(i)));
+				put((byte) '"');
+			}
+			put((byte) ']');
+		} else if ( value instanceof StringEncodedDataObjectList ) {
+			//the elements are already JSON objects
+			List<String> encoded = ((StringEncodedDataObjectList) value).encodedDataObjects;
+			if ( encoded == null ) {
+				put(NULL);
+				return;
+			}
+			put((byte) '[');
+			for ( int i = 0; i < encoded.size(); i++ ) {
+				if ( i > 0 ) {
+					put((byte) ',');
+				}
+				chars.append(encoded.get(i));
+				flushPendingHigh();
+			}
+			put((byte) ']');
+		} else if ( value instanceof List ) {
+			put((byte) '[');
+			boolean first = true;
+			for ( Object element : (List<?>) value ) {
+				if ( first ) {
+					first = false;
+				} else {
+					put((byte) ',');
+				}
+				writeValue(element, null);
+			}
+			put((byte) ']');
+		} else {
+			//doubles, dates and anything else, exactly as the String encoder writes them
+			scratch.setLength(0);
+			DataObjectJSONCodec.writeJSONValue(value, scratch, JSONStyle.NO_COMPRESS);
+			chars.append(scratch);
+			flushPendingHigh();
+		}
+	}
+
+	//quoted and escaped like JSONValue.escape with JSONStyle.NO_COMPRESS, then UTF-8 encoded
+	private void writeString(String value) throws IOException {
+		put((byte) '"');
+		int length = value.length();
+		for ( int i = 0; i < length; i++ ) {
+			char c = value.charAt(i);
+			switch ( c ) {
+				case '"':
+					putEscape('"');
+					break;
+				case '\\':
+					putEscape('\\');
+					break;
+				case '/':
+					putEscape('/');
+					break;
+				case '\b':
+					putEscape('b');
+					break;
+				case '\f':
+					putEscape('f');
+					break;
+				case '\n':
+					putEscape('n');
+					break;
+				case '\r':
+					putEscape('r');
+					break;
+				case '\t':
+					putEscape('t');
+					break;
+				default:
+					if ( c <= '\u001F' || (c >= '\u007F' && c <= '\u009F') || (c >= '\u2000' && c <= '\u20FF') ) {
+						putEscape('u');
+						put(HEX[(c >> 12) & 15]);
+						put(HEX[(c >> 8) & 15]);
+						put(HEX[(c >> 4) & 15]);
+						put(HEX[c & 15]);
+					} else if ( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+						putCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+					} else {
+						putChar(c);
+					}
+			}
+		}
+		put((byte) '"');
+	}
+
+	//straight into out while whole groups fit, a group at a time through put() across an overflow
+	private void writeBase64(BinaryValue value) {
+		put((byte) '"');
+		int length = value.length();
+		int offset = 0;
+		while ( offset < length ) {
+			offset = value.writeBase64(out, offset);
+			if ( offset < length ) {
+				base64Group.clear();
+				offset = value.writeBase64(base64Group, offset);
+				for ( int i = 0; i < base64Group.position(); i++ ) {
+					put(base64Group.get(i));
+				}
+			}
+		}
+		put((byte) '"');
+	}
+
+	private void writeLong(long value) throws IOException {
+		if ( value == Long.MIN_VALUE ) {
+			put(LONG_MIN);
+			return;
+		}
+		if ( value < 0 ) {
+			put((byte) '-');
+			value = -value;
+		}
+		int position = digits.length;
+		do {
+			digits[--position] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while ( value != 0 );
+		while ( position < digits.length ) {
+			put(digits[position++]);
+		}
+	}
+
+	private void writeAscii(String text) throws IOException {
+		for ( int i = 0; i < text.length(); i++ ) {
+			put((byte) text.charAt(i));
+		}
+	}
+
+	private void putEscape(char c) throws IOException {
+		put((byte) '\\');
+		put((byte) c);
+	}
+
+	//a char that is not part of a surrogate pair, a lone surrogate becomes '?' as in String.getBytes
+	private void putChar(char c) {
+		if ( c < 0x80 ) {
+			put((byte) c);
+		} else if ( c < 0x800 ) {
+			put((byte) (0xC0 | (c >> 6)));
+			put((byte) (0x80 | (c & 0x3F)));
+		} else if ( Character.isSurrogate(c) ) {
+			put((byte) '?');
+		} else {
+			put((byte) (0xE0 | (c >> 12)));
+			put((byte) (0x80 | ((c >> 6) & 0x3F)));
+			put((byte) (0x80 | (c & 0x3F)));
+		}
+	}
+
+	private void putCodePoint(int codePoint) {
+		put((byte) (0xF0 | (codePoint >> 18)));
+		put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+		put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+		put((byte) (0x80 | (codePoint & 0x3F)));
+	}
+
+	private void flushPendingHigh() {
+		if ( pendingHigh != 0 ) {
+			pendingHigh = 0;
+			put((byte) '?');
+		}
+	}
+
+	private void put(byte[] bytes) {
+		for ( byte b : bytes ) {
+			put(b);
+		}
+	}
+
+	private void put(byte b) {
+		if ( !out.hasRemaining() ) {
+			if ( overflow == null ) {
+				throw new BufferOverflowException();
+			}
+			try {
+				out = overflow.onOverflow(out);
+			} catch ( IOException e ) {
+				throw new DataObjectException(e);
+			}
+			if ( out == null || !out.hasRemaining() ) {
+				throw new DataObjectException("Overflow returned a buffer with no space remaining");
+			}
+		}
+		out.put(b);
+	}
+}
@@ -1,10 +1,25 @@
 package com.textserv.framework.codecs;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import net.minidev.json.JSONAwareEx;
@@ -19,14 +34,22 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.map.JavaTypeMapper;
 
+import com.textserv.framework.BinaryValue;
 import com.textserv.framework.DataObject;
 import com.textserv.framework.DataObjectException;
+import com.textserv.framework.DataObject.StringEncodedDataObjectList;
+import com.textserv.framework.DoubleList;
+import com.textserv.framework.IntList;
+import com.textserv.framework.LongList;
 
 	
 public class DataObjectJSONCodec {
 
 	public static DataObjectJSONCodec instance = new DataObjectJSONCodec();
 
+	private static final ThreadLocal<BufferedAppendable> buffers = new ThreadLocal<BufferedAppendable>();
+	private static final ThreadLocal<DataObjectJSONByteEncoder> byteEncoders = new ThreadLocal<DataObjectJSONByteEncoder>();
+
 	public class DataObjectTypeMapper extends JavaTypeMapper {
 		private DataObject firstObject = null;
 
@@ -56,18 +79,84 @@ public class DataObjectJSONCodec {
 	
 
 	public static void saveAsJSONString (DataObject dO, Writer out) throws Exception {		
-		//        JsonGenerator gen = new JsonFactory().createJsonGenerator(out);
-		//        new JavaTypeMapper().writeAny(gen, dO);
-		//        gen.close();
-		String jsonString = toJSONString(dO);
-		out.write(jsonString);
+		writeJSONString(dO, out, false);
+	}
+
+	/**
+	 * Writes dO as JSON straight to out, without building the whole String first.  Does
+	 * not close out.
+	 */
+	public static void writeJSONString(DataObject dO, Writer out, boolean pretty) throws DataObjectException {
+		try {
+			if ( pretty ) {
+				JsonGenerator gen = new JsonFactory().createJsonGenerator(out);
+				gen.useDefaultPrettyPrinter();
+				//the mapper only sees the fields through the Map api
+				new JavaTypeMapper().writeAny(gen, mapperForm(dO.withStampsMaterialized()));
+				gen.flush();
+			} else {
+				BufferedAppendable buffered = bufferFor(out);
+				try {
+					writeJSON(dO, buffered, JSONStyle.NO_COMPRESS);
+					buffered.flushBuffer();
+				} finally {
+					buffered.release();
+				}
+			}
+		} catch ( Exception e ) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * Writes dO as UTF-8 JSON straight to out, see writeJSONString(DataObject, Writer, boolean).
+	 */
+	public static void writeJSONString(DataObject dO, OutputStream out, boolean pretty) throws DataObjectException {
+		try {
+			Writer writer = new OutputStreamWriter(out, "UTF-8");
+			writeJSONString(dO, writer, pretty);
+			writer.flush();
+		} catch ( IOException e ) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	//what the mapper writes, with primitive lists as the lists of number strings and binary values as the
+	//base64 strings every other writer produces
+	private static Object mapperForm(Object value) {
+		if ( value instanceof IntList || value instanceof LongList || value instanceof DoubleList ) {
+			List<?> list = (List<?>) value;
+			List<String> strings = new ArrayList<String>(list.size());
+			for ( Object element : list ) {
+				strings.add(element.toString());
+			}
+			return strings;
+		} else if ( value instanceof DataObject ) {
+			Map<String, Object> fields = new LinkedHashMap<String, Object>();
+			Iterator<Map.Entry<String, Object>> own = ((DataObject) value).fieldIterator();
+			while ( own.hasNext() ) {
+				Map.Entry<String, Object> entry = own.next();
+				fields.put(entry.getKey(), mapperForm(entry.getValue()));
+			}
+			return fields;
+		} else if ( value instanceof List ) {
+			List<Object> elements = new ArrayList<Object>(((List<?>) value).size());
+			for ( Object element : (List<?>) value ) {
+				elements.add(mapperForm(element));
+			}
+			return elements;
+		} else if ( value instanceof BinaryValue ) {
+			return value.toString();
+		}
+		return value;
 	}
 
 	public static String toJSONString(Object obj) throws DataObjectException {
 		StringWriter sw = new StringWriter();     
 		try {
 			JsonGenerator gen = new JsonFactory().createJsonGenerator(sw);
-			new JavaTypeMapper().writeAny(gen, obj);
+			//number lists and binary as the codecs write them
+			new JavaTypeMapper().writeAny(gen, mapperForm(obj));
 			gen.close();
 		} catch ( Exception e ) {
 			throw new DataObjectException(e);
@@ -84,20 +173,25 @@ public class DataObjectJSONCodec {
 			return toSmartJson(dO);
 		} else {
 			StringWriter sw = new StringWriter();     
-			try {
-				JsonGenerator gen = new JsonFactory().createJsonGenerator(sw);
-				if ( pretty ) {
-					gen.useDefaultPrettyPrinter();
-				}
-				new JavaTypeMapper().writeAny(gen, dO);
-				gen.close();
-			} catch ( Exception e ) {
-				throw new DataObjectException(e);
-			}
+			writeJSONString(dO, sw, true);
 			return sw.toString();
 		}
 	}
 
+	/**
+	 * Writes dO as UTF-8 JSON at the position of out, with the calling thread's
+	 * DataObjectJSONByteEncoder.  Returns false, with the position of out unchanged, when
+	 * it does not fit.
+	 */
+	public static boolean toJSONBytes(DataObject dO, ByteBuffer out) throws DataObjectException {
+		DataObjectJSONByteEncoder encoder = byteEncoders.get();
+		if ( encoder == null ) {
+			encoder = new DataObjectJSONByteEncoder();
+			byteEncoders.set(encoder);
+		}
+		return encoder.encode(dO, out);
+	}
+
 	protected static String toSmartJson( DataObject dO) throws DataObjectException {
 		StringBuilder sb = new StringBuilder();
 		try {
@@ -109,6 +203,11 @@ public class DataObjectJSONCodec {
 	}
 
 	protected static void writeJSONKV(String key, Object value, Appendable out, JSONStyle compression) throws IOException {
+		writeJSONKV(key, value, out, compression, null);
+	}
+
+	//emittedStamp is the label stamp the enclosing object wrote once, objects inheriting it leave its fields out
+	private static void writeJSONKV(String key, Object value, Appendable out, JSONStyle compression, DataObject emittedStamp) throws IOException {
 		if (key == null)
 			out.append("null");
 		else if (!compression.mustProtectKey(key))
@@ -127,11 +226,93 @@ public class DataObjectJSONCodec {
 				JSONValue.escape((String) value, out, compression);
 				out.append('"');
 			}
+		} else
+			writeJSONValue(value, out, compression, emittedStamp);
+	}
+
+	protected static void writeJSONValue(Object value, Appendable out, JSONStyle compression) throws IOException {
+		writeJSONValue(value, out, compression, null);
+	}
+
+	//nested objects and lists come back through here, so primitive lists are written by us at any depth
+	private static void writeJSONValue(Object value, Appendable out, JSONStyle compression, DataObject emittedStamp) throws IOException {
+		if (value instanceof DataObject) {
+			writeJSON((DataObject) value, out, compression, emittedStamp);
+		} else if (value instanceof BinaryValue) {
+			out.append('"');
+			((BinaryValue) value).writeBase64(out);
+			out.append('"');
+		} else if (value instanceof IntList) {
+			IntList list = (IntList) value;
+			out.append('[');
+			for (int i = 0; i < list.size(); i++) {
+				if (i > 0)
+					out.append(',');
+				writeQuotedNumber(list.getInt(i), out);
+			}
+			out.append(']');
+		} else if (value instanceof LongList) {
+			LongList list = (LongList) value;
+			out.append('[');
+			for (int i = 0; i < list.size(); i++) {
+				if (i > 0)
+					out.append(',');
+				writeQuotedNumber(list.getLong(i), out);
+			}
+			out.append(']');
+		} else if (value instanceof DoubleList) {
+			DoubleList list = (DoubleList) value;
+			out.append('[');
+			for (int i = 0; i < list.size(); i++) {
+				if (i > 0)
+					out.append(',');
+				out.append('"').append(Double.toString(list.getDouble(i))).append('"');
+			}
+			out.append(']');
+		} else if (value instanceof StringEncodedDataObjectList) {
+			//the elements are already JSON objects
+			List<String> encoded = ((StringEncodedDataObjectList) value).encodedDataObjects;
+			if (encoded == null) {
+				out.append("null");
+				return;
+			}
+			out.append('[');
+			for (int i = 0; i < encoded.size(); i++) {
+				if (i > 0)
+					out.append(',');
+				out.append(encoded.get(i));
+			}
+			out.append(']');
+		} else if (value instanceof List) {
+			out.append('[');
+			boolean first = true;
+			for (Object element : (List<?>) value) {
+				if (first)
+					first = false;
+				else
+					out.append(',');
+				writeJSONValue(element, out, compression);
+			}
+			out.append(']');
 		} else
 			JSONValue.writeJSONString(value, out, compression);
 	}
+
+	//numbers in lists are written as strings, the form lists of numbers have always been stored and read back in
+	private static void writeQuotedNumber(long value, Appendable out) throws IOException {
+		out.append('"');
+		if (out instanceof StringBuilder)
+			((StringBuilder) out).append(value);
+		else
+			out.append(Long.toString(value));
+		out.append('"');
+	}
 	
 	protected static void writeJSON(DataObject dO, Appendable out, JSONStyle compression) throws IOException {
+		writeJSON(dO, out, compression, null);
+	}
+
+	private static void writeJSON(DataObject dO, Appendable out, JSONStyle compression, DataObject emittedStamp) throws IOException {
 		if (dO == null) {
 			out.append("null");
 			return;
@@ -144,17 +325,34 @@ public class DataObjectJSONCodec {
 		// }
 
 		out.append('{');
+		DataObject stamp = null;
+		if (!DataObject.isMaterializeLabelStamps() && dO.isStampNeeded() && dO.getLabelStamp() != null) {
+			//first, so the decoder has it before the objects it stamps
+			stamp = dO.getLabelStamp();
+			writeJSONKV(DataObject.DO_LABEL_STAMP, stamp, out, compression);
+			first = false;
+		}
 		/**
 		 * do not use <String, Object> to handle non String key maps
 		 */
-		for (Map.Entry<?, ?> entry : dO.entrySet()) {
+		for (Iterator<Map.Entry<String, Object>> fields = dO.fieldIterator(); fields.hasNext();) {
+			Map.Entry<?, ?> entry = fields.next();
 			if (first)
 				first = false;
 			else
 				out.append(',');
 			// if (styler != null)
 			// out.append(styler.getNewLine());
-			writeJSONKV(entry.getKey().toString(), entry.getValue(), out, compression);
+			writeJSONKV(entry.getKey().toString(), entry.getValue(), out, compression, stamp);
+		}
+		if (dO.getInheritedStamp() != null && dO.getInheritedStamp() != emittedStamp) {
+			for (Map.Entry<String, Object> entry : dO.getInheritedFields().entrySet()) {
+				if (first)
+					first = false;
+				else
+					out.append(',');
+				writeJSONKV(entry.getKey(), entry.getValue(), out, compression);
+			}
 		}
 		// if (styler != null) {
 		// styler.objectOut();
@@ -165,6 +363,74 @@ public class DataObjectJSONCodec {
 		// }
 	}
 	
+	//the calling thread's buffer, or a new one when the thread is already writing through its own
+	private static BufferedAppendable bufferFor(Writer out) {
+		BufferedAppendable buffered = buffers.get();
+		if ( buffered == null ) {
+			buffered = new BufferedAppendable();
+			buffers.set(buffered);
+		} else if ( buffered.out != null ) {
+			buffered = new BufferedAppendable();
+		}
+		buffered.out = out;
+		return buffered;
+	}
+
+	//collects the encoder's many small appends into a char buffer in front of a Writer
+	private static final class BufferedAppendable implements Appendable {
+		private final char[] buffer = new char[8192];
+		private int position = 0;
+		private Writer out;
+
+		public Appendable append(CharSequence csq) throws IOException {
+			return csq == null ? append("null", 0, 4) : append(csq, 0, csq.length());
+		}
+
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			if ( csq == null ) {
+				return append("null", 0, 4);
+			}
+			if ( end - start > buffer.length - position ) {
+				flushBuffer();
+				if ( end - start > buffer.length ) {
+					//too big to be worth copying, a long encoded list element for instance
+					out.append(csq, start, end);
+					return this;
+				}
+			}
+			if ( csq instanceof String ) {
+				((String) csq).getChars(start, end, buffer, position);
+				position += end - start;
+			} else {
+				for ( int i = start; i < end; i++ ) {
+					buffer[position++] = csq.charAt(i);
+				}
+			}
+			return this;
+		}
+
+		public Appendable append(char c) throws IOException {
+			if ( position == buffer.length ) {
+				flushBuffer();
+			}
+			buffer[position++] = c;
+			return this;
+		}
+
+		void flushBuffer() throws IOException {
+			if ( position > 0 ) {
+				out.write(buffer, 0, position);
+				position = 0;
+			}
+		}
+
+		//whatever was not flushed is dropped, so a failed write does not leak into the next one
+		void release() {
+			position = 0;
+			out = null;
+		}
+	}
+
 	public static DataObject createFromJSONString (Reader reader) throws Exception {
 //		JsonParser jp = new JsonFactory().createJsonParser(reader);
 //		DataObject result = instance.new DataObjectTypeMapper().read(jp);
@@ -191,6 +457,106 @@ public class DataObjectJSONCodec {
 		return result;
 	}
 
+	/**
+	 * Reads UTF-8 JSON bytes into dO with the calling thread's DataObjectJSONReader.
+	 */
+	public static DataObject fromJSONBytes(byte[] bytes, DataObject dO) throws DataObjectException {
+		return DataObjectJSONReader.forThread().read(bytes, 0, bytes.length, dO);
+	}
+
+	/**
+	 * Reads the remaining UTF-8 JSON bytes of bytes into dO with the calling thread's
+	 * DataObjectJSONReader.
+	 */
+	public static DataObject fromJSONBytes(ByteBuffer bytes, DataObject dO) throws DataObjectException {
+		return DataObjectJSONReader.forThread().read(bytes, dO);
+	}
+
+	/**
+	 * Reads the UTF-8 JSON file into dO with the same parser, and so the same lenient
+	 * grammar, as fromJSONString, without holding the file as a String.  A file up to
+	 * 2GB is memory mapped and decoded from the mapped bytes as the parser reads, a
+	 * bigger one, more than one mapping can hold, is streamed from the file.
+	 * fromStandardJSONFile is faster for files known to be standard JSON.
+	 */
+	public static DataObject fromJSONFile(File file, DataObject dO) throws DataObjectException {
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				ReadableByteChannel source = channel;
+				if ( size <= Integer.MAX_VALUE ) {
+					source = new MappedChannel(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+				}
+				CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				return new JSONParser().parse(Channels.newReader(source, decoder, 1 << 16), new DataObjectMapper(dO));
+			} finally {
+				in.close();
+			}
+		} catch ( DataObjectException e ) {
+			throw e;
+		} catch ( Exception e ) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	/**
+	 * Reads the UTF-8 JSON file, memory mapped, into dO with the calling thread's
+	 * DataObjectJSONReader.  Faster than fromJSONFile, but the file must be standard
+	 * JSON (no trailing commas, unquoted or single quoted names...) of at most 2GB,
+	 * and whole numbers too big for a long are read as doubles.
+	 */
+	public static DataObject fromStandardJSONFile(File file, DataObject dO) throws DataObjectException {
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				if ( size > Integer.MAX_VALUE ) {
+					throw new DataObjectException(file + " is " + size + " bytes, more than one mapping can hold, use fromJSONFile");
+				}
+				return DataObjectJSONReader.forThread().read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), dO);
+			} finally {
+				in.close();
+			}
+		} catch ( DataObjectException e ) {
+			throw e;
+		} catch ( Exception e ) {
+			throw new DataObjectException(e);
+		}
+	}
+
+	//the mapped bytes of a file as a channel, for a decoding reader
+	private static final class MappedChannel implements ReadableByteChannel {
+		private final ByteBuffer bytes;
+
+		MappedChannel(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		public int read(ByteBuffer destination) {
+			if ( !bytes.hasRemaining() ) {
+				return -1;
+			}
+			int count = Math.min(destination.remaining(), bytes.remaining());
+			ByteBuffer chunk = bytes.duplicate();
+			chunk.limit(chunk.position() + count);
+			destination.put(chunk);
+			bytes.position(bytes.position() + count);
+			return count;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
 	public static DataObject fromJSONString(String readString) throws Exception {
 //		JsonParser jp = new JsonFactory().createJsonParser(new StringReader(readString));
 //		DataObject result = instance.new DataObjectTypeMapper().read(jp);
@@ -198,4 +564,4 @@ public class DataObjectJSONCodec {
 //		return result;
 		return new JSONParser().parse(readString, DataObjectMapper.DEFAULT);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
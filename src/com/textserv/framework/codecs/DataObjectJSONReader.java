@@ -0,0 +1,466 @@
+package com.textserv.framework.codecs;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectException;
+
+/**
+ * Reads UTF-8 JSON straight from bytes into DataObjects, in one pass and without
+ * building a String of the document first.  Values end up as fromJSONString stores them
+ * (whole numbers as Integer or Long, ISO date times as Dates, {"$date": ...} objects as
+ * Dates, a written once label stamp stamps the objects after it) and go into the
+ * objects through DataObject.putDecoded.  Keys seen before are not decoded again.
+ * Nested objects and lists come from the pool of the object being filled, when it has one.
+ * <p>
+ * The input must be standard JSON with an object at the top.  A reader keeps buffers
+ * between documents, use one per thread, forThread() for instance.
+ */
+public final class DataObjectJSONReader {
+
+	private static final ThreadLocal<DataObjectJSONReader> threadReaders = new ThreadLocal<DataObjectJSONReader>();
+	private static final int KEY_CACHE_SIZE = 512;
+
+	//the input, either array (from offset) or buffer, positions are absolute
+	private byte[] array;
+	private ByteBuffer buffer;
+	private int position;
+	private int limit;
+	private DataObject root;
+	private char[] chars = new char[256];
+	//keys by a hash of their bytes, each checked against the bytes before it is used
+	private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+	/**
+	 * The calling thread's own reader.
+	 */
+	public static DataObjectJSONReader forThread() {
+		DataObjectJSONReader reader = threadReaders.get();
+		if ( reader == null ) {
+			reader = new DataObjectJSONReader();
+			threadReaders.set(reader);
+		}
+		return reader;
+	}
+
+	public DataObject read(byte[] bytes) throws DataObjectException {
+		return read(bytes, 0, bytes.length, new DataObject());
+	}
+
+	/**
+	 * Reads the object in bytes[offset, offset + length) into dO and returns dO.
+	 */
+	public DataObject read(byte[] bytes, int offset, int length, DataObject dO) throws DataObjectException {
+		array = bytes;
+		position = offset;
+		limit = offset + length;
+		return readDocument(dO);
+	}
+
+	public DataObject read(ByteBuffer bytes) throws DataObjectException {
+		return read(bytes, new DataObject());
+	}
+
+	/**
+	 * Reads the object in the remaining bytes of bytes into dO and returns dO, bytes is
+	 * left positioned after the object.
+	 */
+	public DataObject read(ByteBuffer bytes, DataObject dO) throws DataObjectException {
+		if ( bytes.hasArray() ) {
+			array = bytes.array();
+			position = bytes.arrayOffset() + bytes.position();
+			limit = bytes.arrayOffset() + bytes.limit();
+			try {
+				return readDocument(dO);
+			} finally {
+				bytes.position(position - bytes.arrayOffset());
+			}
+		}
+		buffer = bytes;
+		position = bytes.position();
+		limit = bytes.limit();
+		try {
+			return readDocument(dO);
+		} finally {
+			bytes.position(position);
+		}
+	}
+
+	private DataObject readDocument(DataObject dO) {
+		root = dO;
+		try {
+			skipWhitespace();
+			if ( position >= limit || at(position) != '{' ) {
+				throw syntaxError("Should start with '{'");
+			}
+			position++;
+			readObject(dO);
+			skipWhitespace();
+			if ( position < limit ) {
+				throw syntaxError("Unexpected content after the object");
+			}
+			return dO;
+		} finally {
+			array = null;
+			buffer = null;
+			root = null;
+		}
+	}
+
+	//the members of an object whose '{' has been read, up to and including its '}'
+	private void readObject(DataObject current) {
+		skipWhitespace();
+		if ( peek() == '}' ) {
+			position++;
+			return;
+		}
+		while ( true ) {
+			skipWhitespace();
+			if ( peek() != '"' ) {
+				throw syntaxError("Expected a quoted key");
+			}
+			position++;
+			String key = readKey();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			readMember(current, key);
+			skipWhitespace();
+			byte next = next();
+			if ( next == '}' ) {
+				return;
+			}
+			if ( next != ',' ) {
+				throw syntaxError("Expected ',' or '}'");
+			}
+		}
+	}
+
+	//one member value, stored the way DataObjectMapper.setValue stores it
+	private void readMember(DataObject current, String key) {
+		byte next = peek();
+		if ( next == '{' ) {
+			position++;
+			DataObject child = root.newChild();
+			readObject(child);
+			if ( child.containsKey("$date") ) {
+				//mongodb style date
+				current.put(key, child.getDate("$date"));
+			} else if ( DataObject.DO_LABEL_STAMP.equals(key) ) {
+				//a stamp written once, the objects that follow inherit it again
+				current.setLabelStampObjects(child);
+			} else {
+				current.putDecoded(key, child);
+			}
+		} else if ( next == '"' ) {
+			position++;
+			current.putDecoded(key, DataObjectMapper.stringValue(key, readString()));
+		} else {
+			current.putDecoded(key, readValue());
+		}
+	}
+
+	//a value inside a list, or a scalar member
+	private Object readValue() {
+		byte next = peek();
+		switch ( next ) {
+			case '{':
+				position++;
+				DataObject child = root.newChild();
+				readObject(child);
+				return child;
+			case '[':
+				position++;
+				return readList();
+			case '"':
+				position++;
+				return readString();
+			case 't':
+				expectWord("true");
+				return Boolean.TRUE;
+			case 'f':
+				expectWord("false");
+				return Boolean.FALSE;
+			case 'n':
+				expectWord("null");
+				return null;
+			default:
+				return readNumber();
+		}
+	}
+
+	private List<Object> readList() {
+		List<Object> list = root.newList();
+		skipWhitespace();
+		if ( peek() == ']' ) {
+			position++;
+			return list;
+		}
+		while ( true ) {
+			skipWhitespace();
+			list.add(readValue());
+			skipWhitespace();
+			byte next = next();
+			if ( next == ']' ) {
+				return list;
+			}
+			if ( next != ',' ) {
+				throw syntaxError("Expected ',' or ']'");
+			}
+		}
+	}
+
+	//whole numbers that fit are Integer or Long, anything else a Double
+	private Object readNumber() {
+		int start = position;
+		boolean negative = false;
+		if ( peek() == '-' ) {
+			negative = true;
+			position++;
+		}
+		//accumulated negative, as Long.parseLong does, so Long.MIN_VALUE fits
+		long lowest = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		int digits = 0;
+		boolean overflow = false;
+		while ( position < limit ) {
+			int c = at(position);
+			if ( c < '0' || c > '9' ) {
+				break;
+			}
+			int digit = c - '0';
+			if ( value < lowest / 10 || value * 10 < lowest + digit ) {
+				overflow = true;
+			} else {
+				value = value * 10 - digit;
+			}
+			digits++;
+			position++;
+		}
+		if ( digits == 0 ) {
+			throw syntaxError("Unexpected character");
+		}
+		boolean fraction = false;
+		while ( position < limit ) {
+			int c = at(position);
+			if ( c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' || (c >= '0' && c <= '9') ) {
+				fraction = true;
+				position++;
+			} else {
+				break;
+			}
+		}
+		if ( fraction || overflow ) {
+			int length = position - start;
+			char[] text = charBuffer(length);
+			for ( int i = 0; i < length; i++ ) {
+				text[i] = (char) at(start + i);
+			}
+			try {
+				return Double.valueOf(new String(text, 0, length));
+			} catch ( NumberFormatException e ) {
+				position = start;
+				throw syntaxError("Bad number");
+			}
+		}
+		if ( !negative ) {
+			value = -value;
+		}
+		if ( value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ) {
+			return Integer.valueOf((int) value);
+		}
+		return Long.valueOf(value);
+	}
+
+	//a key whose opening quote has been read, plain keys come from the cache
+	private String readKey() {
+		int start = position;
+		int hash = 0;
+		while ( position < limit ) {
+			int c = at(position);
+			if ( c == '"' ) {
+				int length = position - start;
+				int index = (hash ^ (hash >>> 16) ^ length) & (KEY_CACHE_SIZE - 1);
+				String cached = keyCache[index];
+				if ( cached != null && matches(cached, start, length) ) {
+					position++;
+					return cached;
+				}
+				String key = readString(start);
+				keyCache[index] = key;
+				return key;
+			}
+			if ( c == '\\' || c < 0 ) {
+				//escaped or not ascii, not worth caching
+				return readString(start);
+			}
+			hash = 31 * hash + c;
+			position++;
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	private boolean matches(String key, int start, int length) {
+		if ( key.length() != length ) {
+			return false;
+		}
+		for ( int i = 0; i < length; i++ ) {
+			if ( key.charAt(i) != at(start + i) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String readString() {
+		return readString(position);
+	}
+
+	//the string starting at start, just after its opening quote, up to and including the closing quote
+	private String readString(int start) {
+		position = start;
+		int length = 0;
+		char[] text = chars;
+		while ( true ) {
+			if ( position >= limit ) {
+				throw syntaxError("Unterminated string");
+			}
+			if ( length + 2 > text.length ) {
+				text = charBuffer(text.length * 2);
+			}
+			int c = at(position++);
+			if ( c == '"' ) {
+				return new String(text, 0, length);
+			}
+			if ( c == '\\' ) {
+				text[length++] = readEscape();
+			} else if ( c >= 0 ) {
+				text[length++] = (char) c;
+			} else {
+				int codePoint = readMultiByte(c);
+				if ( codePoint > 0xFFFF ) {
+					text[length++] = Character.highSurrogate(codePoint);
+					text[length++] = Character.lowSurrogate(codePoint);
+				} else {
+					text[length++] = (char) codePoint;
+				}
+			}
+		}
+	}
+
+	private char readEscape() {
+		byte escaped = next();
+		switch ( escaped ) {
+			case '"':
+			case '\\':
+			case '/':
+				return (char) escaped;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+				for ( int i = 0; i < 4; i++ ) {
+					int digit = Character.digit(next(), 16);
+					if ( digit < 0 ) {
+						throw syntaxError("Bad \\u escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				throw syntaxError("Bad escape");
+		}
+	}
+
+	//the rest of a UTF-8 sequence whose (signed) lead byte is lead, malformed input reads as U+FFFD
+	private int readMultiByte(int lead) {
+		int b = lead & 0xFF;
+		int extra;
+		int codePoint;
+		if ( b >= 0xF0 && b <= 0xF4 ) {
+			extra = 3;
+			codePoint = b & 0x07;
+		} else if ( b >= 0xE0 ) {
+			extra = 2;
+			codePoint = b & 0x0F;
+		} else if ( b >= 0xC2 && b < 0xE0 ) {
+			extra = 1;
+			codePoint = b & 0x1F;
+		} else {
+			return 0xFFFD;
+		}
+		for ( int i = 0; i < extra; i++ ) {
+			if ( position >= limit || (at(position) & 0xC0) != 0x80 ) {
+				return 0xFFFD;
+			}
+			codePoint = (codePoint << 6) | (at(position++) & 0x3F);
+		}
+		if ( (extra == 2 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint))) || (extra == 3 && (codePoint < 0x10000 || codePoint > 0x10FFFF)) ) {
+			return 0xFFFD;
+		}
+		return codePoint;
+	}
+
+	private char[] charBuffer(int length) {
+		if ( chars.length < length ) {
+			char[] grown = new char[Math.max(length, chars.length * 2)];
+			System.arraycopy(chars, 0, grown, 0, chars.length);
+			chars = grown;
+		}
+		return chars;
+	}
+
+	private void expect(char c) {
+		if ( next() != c ) {
+			throw syntaxError("Expected '" + c + "'");
+		}
+	}
+
+	private void expectWord(String word) {
+		for ( int i = 0; i < word.length(); i++ ) {
+			if ( next() != word.charAt(i) ) {
+				throw syntaxError("Unexpected character");
+			}
+		}
+	}
+
+	private void skipWhitespace() {
+		while ( position < limit ) {
+			int c = at(position);
+			if ( c != ' ' && c != '\n' && c != '\r' && c != '\t' ) {
+				return;
+			}
+			position++;
+		}
+	}
+
+	private byte peek() {
+		if ( position >= limit ) {
+			throw syntaxError("Unexpected end of input");
+		}
+		return at(position);
+	}
+
+	private byte next() {
+		byte b = peek();
+		position++;
+		return b;
+	}
+
+	private byte at(int index) {
+		return array != null ? array[index] : buffer.get(index);
+	}
+
+	private DataObjectException syntaxError(String message) {
+		return new DataObjectException("Syntax error reading JSON at byte " + position + ".  " + message);
+	}
+}
@@ -4,28 +4,29 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 
 import net.minidev.json.mapper.AMapper;
 
 import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectDateParsers;
 
 public class DataObjectMapper extends AMapper<DataObject> {
 
 	private boolean firstObj = true;
 	private DataObject firstDo = null;
-    private static ThreadLocal<DateTimeFormatter> dateFmttrHolder = new ThreadLocal<DateTimeFormatter>();
 	private static final Logger LOG = Logger.getLogger(DataObjectMapper.class);
-	private static Pattern isoRegEx = Pattern.compile("(\\d{4}-[01]\\d-[0-3]\\dT[0-2]\\d:[0-5]\\d:[0-5]\\d\\.\\d+([+-][0-2]\\d:[0-5]\\d|Z))|(\\d{4}-[01]\\d-[0-3]\\dT[0-2]\\d:[0-5]\\d:[0-5]\\d([+-][0-2]\\d:[0-5]\\d|Z))|(\\d{4}-[01]\\d-[0-3]\\dT[0-2]\\d:[0-5]\\d([+-][0-2]\\d:[0-5]\\d|Z))");
+	private static volatile boolean sniffDates = true;
+	//null to check every string
+	private static volatile Set<String> dateKeys = null;
 
 	public DataObjectMapper() {
 	}
@@ -36,14 +37,44 @@ public class DataObjectMapper extends AMapper<DataObject> {
 
 	public static AMapper<DataObject> DEFAULT = new DataObjectMapper();
 
+	/**
+	 * Whether strings read from JSON that are ISO date times with fractional seconds
+	 * ("2012-01-02T03:04:05.678Z") are stored as Dates.  On by default, turn it off when
+	 * the documents carry no dates, or dates that should stay strings.
+	 */
+	public static void setSniffDates(boolean sniff) {
+		sniffDates = sniff;
+	}
+
+	public static boolean isSniffDates() {
+		return sniffDates;
+	}
+
+	/**
+	 * Restricts date sniffing to the strings under these keys, null (the default)
+	 * checks every string.
+	 */
+	public static void setDateKeys(Collection<String> keys) {
+		dateKeys = keys == null ? null : Collections.unmodifiableSet(new HashSet<String>(keys));
+	}
+
+	public static Set<String> getDateKeys() {
+		return dateKeys;
+	}
+
 	@Override
 	public AMapper<DataObject> startObject(String key) {
-		return DEFAULT;
+		return pooled() ? this : DEFAULT;
 	}
 
 	@Override
 	public AMapper<DataObject> startArray(String key) {
-		return DEFAULT;
+		return pooled() ? this : DEFAULT;
+	}
+
+	//a pooled root takes the objects and lists nested in it from its pool
+	private boolean pooled() {
+		return firstDo != null && firstDo.getPool() != null;
 	}
 
 	@Override
@@ -51,6 +82,8 @@ public class DataObjectMapper extends AMapper<DataObject> {
 		if ( firstDo != null && firstObj) {
 			firstObj = false;
 			return firstDo;
+		} else if ( pooled() ) {
+			return firstDo.newChild();
 		} else {
 			return new DataObject();
 		}
@@ -59,19 +92,9 @@ public class DataObjectMapper extends AMapper<DataObject> {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Object createArray() {
-		return new ArrayList();
+		return pooled() ? firstDo.newList() : new ArrayList();
 	}
 
-	   private DateTimeFormatter getDateFormater() {		   
-	    	DateTimeFormatter formatter = dateFmttrHolder.get();
-	        if ( formatter == null ) {
-	        	formatter = ISODateTimeFormat.dateTime();
-	        	dateFmttrHolder.set(formatter);
-	        }
-	        return formatter;
-	    }
-	   
-	@SuppressWarnings("deprecation")
 	@Override
 	public void setValue(Object current, String key, Object value) {
 		//hack to handle mongodb $types
@@ -79,27 +102,37 @@ public class DataObjectMapper extends AMapper<DataObject> {
 			DataObject doValue = (DataObject)value;
 			if ( doValue.containsKey("$date")) {
 				((DataObject) current).put(key, doValue.getDate("$date"));
+			} else if ( DataObject.DO_LABEL_STAMP.equals(key) ) {
+				//a stamp written once, the objects that follow inherit it again
+				((DataObject) current).setLabelStampObjects(doValue);
 			} else {
-				((DataObject) current).put(key, value);
+				((DataObject) current).put(key, ((DataObject) current).stampIfNeeded(doValue));
 			}
 		} else if ( value instanceof String ) {
-			Matcher isoMatcher = isoRegEx.matcher((String)value);
-			if ( isoMatcher.matches() ) {
-				DateTimeFormatter formatter = getDateFormater();
-				try {
-					DateTime parsedDateTime = formatter.parseDateTime((String)value);
-					((DataObject) current).put(key, parsedDateTime.toDate());
-				} catch (Exception e ) {
-					((DataObject) current).put(key, value);
-				}
-			} else {
-				((DataObject) current).put(key, value);
-			}
+			((DataObject) current).put(key, stringValue(key, (String) value));
 		} else {
 			((DataObject) current).put(key, value);
 		}
 	}
 
+	/**
+	 * What a string read from JSON under key is stored as: a Date when it is an ISO date
+	 * time and dates are sniffed for key, the string itself otherwise.
+	 */
+	static Object stringValue(String key, String value) {
+		if ( !sniffDates ) {
+			return value;
+		}
+		Set<String> keys = dateKeys;
+		if ( keys != null && !keys.contains(key) ) {
+			return value;
+		}
+		//the parser turns down anything too short or without the separators in place before looking at a digit,
+		//and is stricter than the pattern that used to guard it, so it decides alone
+		Date parsedDate = DataObjectDateParsers.ISO_DATE_TIME.parse(value);
+		return parsedDate != null ? parsedDate : value;
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public void addValue(Object current, Object value) {
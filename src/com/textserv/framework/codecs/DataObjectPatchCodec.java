@@ -0,0 +1,120 @@
+package com.textserv.framework.codecs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectException;
+
+/**
+ * Field level updates between copies of a DataObject.  The sender turns on
+ * setTrackDirtyFields, makes its changes and encodes a patch holding only the
+ * dirty fields, the receiver applies it to its own copy.
+ * <p>
+ * A patch is itself a DataObject, {"txtsrv_Set":{changed fields},"txtsrv_Removed":[removed keys]},
+ * so it travels through the existing JSON and binary codecs.  The binary codec only
+ * carries strings, so scalar values in a binary patch are sent in their string
+ * form (dates as store_as_strings writes them), the typed getters on the receiving side read them back the same way they
+ * read objects stored as strings.
+ * Changes made inside a nested DataObject are only part of the patch once the
+ * nested object is set on its parent again (or the nested object is patched on its own).
+ */
+public class DataObjectPatchCodec {
+
+	public static final String PATCH_SET = "txtsrv_Set";
+	public static final String PATCH_REMOVED = "txtsrv_Removed";
+
+	public static DataObject createPatch(DataObject dO) throws DataObjectException {
+		return createPatch(dO, false);
+	}
+
+	private static DataObject createPatch(DataObject dO, boolean valuesAsStrings) throws DataObjectException {
+		DataObject set = new DataObject();
+		List<String> removed = new ArrayList<String>();
+		for ( String key : dO.getDirtyFields() ) {
+			//an own field removed from over a stamp field is still a removal
+			if ( dO.containsOwnKey(key) ) {
+				Object value = dO.getObject(key);
+				if ( valuesAsStrings ) {
+					value = asString(value);
+				}
+				set.put(key, value);
+			} else {
+				removed.add(key);
+			}
+		}
+		DataObject patch = new DataObject();
+		patch.setDataObject(PATCH_SET, set);
+		if ( !removed.isEmpty() ) {
+			patch.setStringList(PATCH_REMOVED, removed);
+		}
+		return patch;
+	}
+
+	//strings, lists of strings and DataObjects are all the binary codec writes
+	private static Object asString(Object value) throws DataObjectException {
+		if ( value instanceof DataObject ) {
+			DataObject converted = new DataObject();
+			Iterator<Map.Entry<String, Object>> fields = ((DataObject) value).fieldIterator();
+			while ( fields.hasNext() ) {
+				Map.Entry<String, Object> entry = fields.next();
+				converted.put(entry.getKey(), asString(entry.getValue()));
+			}
+			return converted;
+		} else if ( value instanceof List ) {
+			List<Object> converted = new ArrayList<Object>();
+			for ( Object element : (List<?>) value ) {
+				converted.add(asString(element));
+			}
+			return converted;
+		} else if ( value instanceof Date ) {
+			//as store_as_strings stores it, so getDate can read it back
+			return DataObject.formatStoredDate((Date) value);
+		}
+		return value == null ? null : value.toString();
+	}
+
+	public static String toJSONString(DataObject dO) throws DataObjectException {
+		return DataObjectJSONCodec.toJSONString(createPatch(dO));
+	}
+
+	public static void encode(DataObject dO, DataOutput out) throws IOException {
+		DataObjectDataInputOutputCodec.encode(createPatch(dO, true), out);
+	}
+
+	/**
+	 * Applies a patch made by createPatch to target, set fields replace the target's
+	 * values and removed fields are removed.
+	 */
+	public static DataObject applyPatch(DataObject patch, DataObject target) throws DataObjectException {
+		if ( !patch.containsKey(PATCH_SET) ) {
+			throw new DataObjectException("Not a DataObject patch, it has no " + PATCH_SET);
+		}
+		DataObject set = patch.getDataObject(PATCH_SET);
+		Iterator<Map.Entry<String, Object>> fields = set.fieldIterator();
+		while ( fields.hasNext() ) {
+			Map.Entry<String, Object> entry = fields.next();
+			target.put(entry.getKey(), entry.getValue());
+		}
+		if ( patch.containsKey(PATCH_REMOVED) ) {
+			for ( String key : patch.getStringList(PATCH_REMOVED) ) {
+				target.remove(key);
+			}
+		}
+		return target;
+	}
+
+	public static DataObject applyJSONPatch(String patch, DataObject target) throws DataObjectException {
+		return applyPatch(DataObjectJSONCodec.fromJSONString(patch, new DataObject()), target);
+	}
+
+	public static DataObject decodeAndApply(DataInput in, DataObject target) throws DataObjectException, IOException {
+		return applyPatch(DataObjectDataInputOutputCodec.decode(in), target);
+	}
+}
@@ -6,12 +6,14 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.textserv.framework.BinaryValue;
 import com.textserv.framework.DataObject;
 import com.textserv.framework.DataObjectException;
 import com.textserv.framework.DataObject.StringEncodedDataObjectList;
@@ -46,16 +48,28 @@ public class DataObjectStringCodec {
 		public static String toString(DataObject map) {
 			StringBuffer buf = new StringBuffer();
 			buf.append("{");
-			Iterator i = map.entrySet().iterator();
+			Iterator<Map.Entry<String, Object>> i = map.fieldIterator();
+			if (map.getInheritedStamp() != null) {
+				//inherited stamp fields are written as the object's own
+				Map<String, Object> fields = new LinkedHashMap<String, Object>();
+				while (i.hasNext()) {
+					Map.Entry<String, Object> e = i.next();
+					fields.put(e.getKey(), e.getValue());
+				}
+				fields.putAll(map.getInheritedFields());
+				i = fields.entrySet().iterator();
+			}
 			boolean hasNext = i.hasNext();
 			while (hasNext) {
-				Map.Entry e = (Map.Entry) (i.next());
+				Map.Entry<String, Object> e = i.next();
 				Object key = e.getKey();
 				Object value = e.getValue();
 				encodeString(key.toString(), buf);
 				buf.append(RECORD_SEP);
 				if (value instanceof String) {
 					encodeString((String) value, buf);
+				} else if (value instanceof BinaryValue) {
+					encodeString(value.toString(), buf);
 				} else if (value instanceof List) {
 					buf.append(wrapList((List) value));
 				} else if (value instanceof DataObject) {
@@ -86,11 +100,13 @@ public class DataObjectStringCodec {
 			boolean hasNext = i.hasNext();
 			while (hasNext) {
 				Object o = i.next();
-				//only strings and dataobjects supported in lists
+				//only strings and dataobjects supported in lists, the numbers of an IntList (or Long/DoubleList) go as strings
 				if ( o instanceof String ) {
 					encodeString((String)o, buf);
 				} else if ( o instanceof DataObject ) {
 					buf.append(toString((DataObject) o));
+				} else if ( o instanceof Number ) {
+					encodeString(o.toString(), buf);
 				}
 				hasNext = i.hasNext();
 				if (hasNext)
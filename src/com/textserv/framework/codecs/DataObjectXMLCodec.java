@@ -5,6 +5,7 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
@@ -17,6 +18,7 @@ import org.jdom.input.SAXBuilder;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
+import com.textserv.framework.BinaryValue;
 import com.textserv.framework.DataObject;
 import com.textserv.framework.DataObjectException;
 
@@ -34,12 +36,13 @@ public class DataObjectXMLCodec {
 		Element root = new Element("DataObject");
 
 		// depth first traversal of DO, creating JDOM nodes
-
-		Iterator i = dO.keySet().iterator();
+		dO = dO.withStampsMaterialized();
+		Iterator<Map.Entry<String, Object>> i = dO.fieldIterator();
 
 		while (i.hasNext()) {
-			String tag = (String) i.next();
-			Object value = dO.get(tag);
+			Map.Entry<String, Object> e = i.next();
+			String tag = e.getKey();
+			Object value = e.getValue();
 			Object el = getXmlForm (tag, value, getDefaultAttributeMode());
 			if (el == null) {
 				// ignore
@@ -69,6 +72,10 @@ public class DataObjectXMLCodec {
 		if (tag == null || o == null) {
 			return null;
 		}
+		if (o instanceof BinaryValue) {
+			//base64 text, as binary values were always stored
+			o = o.toString();
+		}
 
 		if (o instanceof String) {
 			try {
@@ -97,7 +104,12 @@ public class DataObjectXMLCodec {
 			Iterator i = l.iterator();
 			int counter = 1;
 			while (i.hasNext()) {
-				Object ox = getXmlForm(tag + ".child." + counter, i.next(), false);//never use attributes for list elements
+				Object element = i.next();
+				if (element instanceof Number) {
+					//IntList, LongList and DoubleList elements, written as the strings they are read back as
+					element = element.toString();
+				}
+				Object ox = getXmlForm(tag + ".child." + counter, element, false);//never use attributes for list elements
 				if (ox instanceof Element) {
 					s.addContent((Element)ox);
 				} else if ( ox instanceof Attribute ) {
@@ -112,10 +124,11 @@ public class DataObjectXMLCodec {
 			Element s = new Element(tag);
 			s.setAttribute(new Attribute("type", "dataObject"));
 			DataObject m = (DataObject)o;
-			Iterator i = m.keySet().iterator();
+			Iterator<Map.Entry<String, Object>> i = m.fieldIterator();
 			while (i.hasNext()) {
-				String t = (String)i.next();
-				Object ox = getXmlForm(t, m.get(t), getDefaultAttributeMode());
+				Map.Entry<String, Object> e = i.next();
+				String t = e.getKey();
+				Object ox = getXmlForm(t, e.getValue(), getDefaultAttributeMode());
 				if (ox == null) {
 					// do nothing
 				}
@@ -0,0 +1,137 @@
+package com.textserv.framework.measure;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.textserv.framework.ConcurrentDataObject;
+import com.textserv.framework.DataObject;
+
+/**
+ * Compares a DataObject shared by synchronizing on it with a ConcurrentDataObject,
+ * with every thread mostly reading and sometimes updating a handful of session fields.
+ * Run with optional thread count, operations per thread and percentage of writes,
+ * prints one throughput line per object, with the total of what the reads returned
+ * so they cannot be optimized away.
+ */
+public class ConcurrentDataObjectBenchmark {
+
+	private static final String[] KEYS = { "user", "state", "hits", "lastPage", "locale", "plan" };
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		int writePercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		//warm up both paths before measuring
+		run(new ThroughputBenchmark("warmup", false), new SynchronizedSession(), threads, operations / 10, writePercent);
+		run(new ThroughputBenchmark("warmup", false), new ConcurrentSession(), threads, operations / 10, writePercent);
+
+		ThroughputBenchmark synchronizedObject = new ThroughputBenchmark("synchronized DataObject " + threads + " threads " + writePercent + "% writes", false);
+		long synchronizedReads = run(synchronizedObject, new SynchronizedSession(), threads, operations, writePercent);
+		System.out.println(synchronizedObject.getStats() + " reads total " + synchronizedReads);
+
+		ThroughputBenchmark concurrentObject = new ThroughputBenchmark("ConcurrentDataObject " + threads + " threads " + writePercent + "% writes", false);
+		long concurrentReads = run(concurrentObject, new ConcurrentSession(), threads, operations, writePercent);
+		System.out.println(concurrentObject.getStats() + " reads total " + concurrentReads);
+	}
+
+	//returns the total of what the reads returned
+	private static long run(ThroughputBenchmark benchmark, final Session session, int threads, final int operations, final int writePercent) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong reads = new AtomicLong();
+		for ( int t = 0; t < threads; t++ ) {
+			final int seed = t * 7919 + 1;
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						int random = seed;
+						int read = 0;
+						for ( int i = 0; i < operations; i++ ) {
+							//xorshift, cheap and per thread
+							random ^= random << 13;
+							random ^= random >>> 17;
+							random ^= random << 5;
+							String key = KEYS[(random >>> 8) % KEYS.length];
+							if ( (random >>> 1) % 100 < writePercent ) {
+								session.write(key, i);
+							} else {
+								read += session.read(key);
+							}
+						}
+						reads.addAndGet(read);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		//the benchmark times from its first count
+		benchmark.incrementCount(0);
+		start.countDown();
+		done.await();
+		benchmark.incrementCount(threads * operations);
+		return reads.get();
+	}
+
+	private interface Session {
+		int read(String key);
+
+		void write(String key, int i);
+	}
+
+	private static final class SynchronizedSession implements Session {
+		private final DataObject session = new DataObject();
+
+		SynchronizedSession() {
+			for ( String key : KEYS ) {
+				session.setString(key, key);
+			}
+			session.setLong("hits", 0L);
+		}
+
+		public int read(String key) {
+			synchronized (session) {
+				Object value = session.getObject(key);
+				return value == null ? 0 : value.toString().length();
+			}
+		}
+
+		public void write(String key, int i) {
+			synchronized (session) {
+				if ( "hits".equals(key) ) {
+					session.setLong(key, session.getLong(key) + 1);
+				} else {
+					session.setString(key, key + (i & 0xF));
+				}
+			}
+		}
+	}
+
+	private static final class ConcurrentSession implements Session {
+		private final ConcurrentDataObject session = new ConcurrentDataObject();
+
+		ConcurrentSession() {
+			for ( String key : KEYS ) {
+				session.setString(key, key);
+			}
+			session.setLong("hits", 0L);
+		}
+
+		public int read(String key) {
+			Object value = session.getObject(key);
+			return value == null ? 0 : value.toString().length();
+		}
+
+		public void write(String key, int i) {
+			if ( "hits".equals(key) ) {
+				session.incrementLong(key);
+			} else {
+				session.setString(key, key + (i & 0xF));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.textserv.framework.measure;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectException;
+
+/**
+ * Compares DataObject.createCopy() with the old copy through the JSON string encoding.
+ * Run with an optional iteration count, prints one throughput line per copy path.
+ */
+public class CreateCopyBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		DataObject message = createMessage();
+
+		//warm up both paths before measuring
+		run(new ThroughputBenchmark("warmup", false), message, iterations / 10, true);
+		run(new ThroughputBenchmark("warmup", false), message, iterations / 10, false);
+
+		ThroughputBenchmark jsonCopy = new ThroughputBenchmark("json round trip copy", false);
+		run(jsonCopy, message, iterations, true);
+		System.out.println(jsonCopy.getStats());
+
+		ThroughputBenchmark structuralCopy = new ThroughputBenchmark("structural createCopy", false);
+		run(structuralCopy, message, iterations, false);
+		System.out.println(structuralCopy.getStats());
+	}
+
+	private static void run(ThroughputBenchmark benchmark, DataObject message, int iterations, boolean viaJson) throws DataObjectException {
+		for ( int i = 0; i < iterations; i++ ) {
+			DataObject copy;
+			if ( viaJson ) {
+				copy = new DataObject();
+				copy.fromStringEncoded(message.toStringEncoded());
+			} else {
+				copy = message.createCopy();
+			}
+			if ( copy.size() != message.size() ) {
+				throw new IllegalStateException("copy lost fields");
+			}
+			benchmark.incrementCount();
+		}
+	}
+
+	private static DataObject createMessage() {
+		DataObject message = new DataObject("message");
+		message.setString("from", "+15551234567");
+		message.setString("to", "+15557654321");
+		message.setString("body", "Your order has shipped and should arrive on Tuesday");
+		message.setLong("received", System.currentTimeMillis());
+		message.setInt("segments", 2);
+		message.setDouble("cost", 0.0075);
+		message.setBoolean("delivered", false);
+		message.setDate("sent", new Date());
+		DataObject carrier = message.getDataObject("carrier", true);
+		carrier.setString("name", "example");
+		carrier.setInt("mcc", 310);
+		carrier.setInt("mnc", 260);
+		List<DataObject> parts = new ArrayList<DataObject>();
+		for ( int i = 0; i < 5; i++ ) {
+			DataObject part = new DataObject();
+			part.setInt("index", i);
+			part.setString("text", "segment text " + i);
+			parts.add(part);
+		}
+		message.setDataObjectList("parts", parts);
+		List<String> tags = new ArrayList<String>();
+		tags.add("marketing");
+		tags.add("us");
+		message.setStringList("tags", tags);
+		return message;
+	}
+}
@@ -0,0 +1,105 @@
+package com.textserv.framework.measure;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.textserv.framework.DataObject;
+import com.textserv.framework.DataObjectRingBuffer;
+
+/**
+ * Compares passing messages from a producer thread to a consumer thread through an
+ * ArrayBlockingQueue of new DataObjects with passing them through a DataObjectRingBuffer
+ * of recycled entries.  Run with an optional message count and wait strategy, prints
+ * one throughput line per hand off.
+ */
+public class DataObjectRingBufferBenchmark {
+
+	private static final int SIZE = 1024;
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		DataObjectRingBuffer.WaitStrategy waitStrategy = args.length > 1 ? DataObjectRingBuffer.WaitStrategy.valueOf(args[1]) : DataObjectRingBuffer.WaitStrategy.YIELD;
+
+		//warm up both paths before measuring
+		runQueue(new ThroughputBenchmark("warmup", false), messages / 10);
+		runRing(new ThroughputBenchmark("warmup", false), messages / 10, waitStrategy);
+
+		ThroughputBenchmark queue = new ThroughputBenchmark("ArrayBlockingQueue of new DataObjects", false);
+		runQueue(queue, messages);
+		System.out.println(queue.getStats());
+
+		ThroughputBenchmark ring = new ThroughputBenchmark("DataObjectRingBuffer " + waitStrategy, false);
+		runRing(ring, messages, waitStrategy);
+		System.out.println(ring.getStats());
+	}
+
+	private static void runQueue(ThroughputBenchmark benchmark, final int messages) throws InterruptedException {
+		final BlockingQueue<DataObject> queue = new ArrayBlockingQueue<DataObject>(SIZE);
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					long total = 0;
+					for ( int i = 0; i < messages; i++ ) {
+						total += queue.take().getDataObject("order").getLong("quantity");
+					}
+					check(total, messages);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		benchmark.incrementCount(0);
+		consumer.start();
+		for ( int i = 0; i < messages; i++ ) {
+			DataObject message = new DataObject();
+			fill(message, i);
+			queue.put(message);
+		}
+		consumer.join();
+		benchmark.incrementCount(messages);
+	}
+
+	private static void runRing(ThroughputBenchmark benchmark, final int messages, DataObjectRingBuffer.WaitStrategy waitStrategy) throws InterruptedException {
+		DataObjectRingBuffer ring = new DataObjectRingBuffer(SIZE, waitStrategy);
+		final DataObjectRingBuffer.Consumer reader = ring.newConsumer();
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				final long[] total = new long[1];
+				DataObjectRingBuffer.Handler handler = new DataObjectRingBuffer.Handler() {
+					public void onDataObject(DataObject dataObject, long sequence, boolean endOfBatch) {
+						total[0] += dataObject.getDataObject("order").getLong("quantity");
+					}
+				};
+				int handled = 0;
+				while ( handled < messages ) {
+					handled += reader.consume(handler);
+				}
+				check(total[0], messages);
+			}
+		});
+		benchmark.incrementCount(0);
+		consumer.start();
+		for ( int i = 0; i < messages; i++ ) {
+			long sequence = ring.next();
+			fill(ring.get(sequence), i);
+			ring.publish(sequence);
+		}
+		consumer.join();
+		benchmark.incrementCount(messages);
+	}
+
+	private static void fill(DataObject message, int i) {
+		message.setString("type", "order");
+		message.setLong("id", (long) i);
+		DataObject order = message.getDataObject("order", true);
+		order.setString("symbol", "ACME");
+		order.setLong("quantity", 1L);
+		order.setDouble("price", 10.25);
+	}
+
+	private static void check(long total, int messages) {
+		if ( total != messages ) {
+			throw new IllegalStateException("lost messages: " + total + " of " + messages);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.textserv.framework.measure;
+
+import java.util.Date;
+
+import com.textserv.framework.DataObject;
+import com.textserv.framework.codecs.DataObjectJSONCodec;
+import com.textserv.framework.codecs.DataObjectJSONReader;
+
+/**
+ * Compares reading a message that arrives as UTF-8 bytes through a String and
+ * fromJSONString with reading it straight from the bytes with DataObjectJSONReader.
+ * Run with an optional iteration count, prints one throughput line per path.
+ */
+public class JSONReaderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		byte[] message = createMessage().toStringEncoded().getBytes("UTF-8");
+
+		//warm up both paths before measuring
+		run(new ThroughputBenchmark("warmup", false), message, iterations / 10, true);
+		run(new ThroughputBenchmark("warmup", false), message, iterations / 10, false);
+
+		ThroughputBenchmark viaString = new ThroughputBenchmark("new String + fromJSONString", false);
+		run(viaString, message, iterations, true);
+		System.out.println(viaString.getStats());
+
+		ThroughputBenchmark fromBytes = new ThroughputBenchmark("DataObjectJSONReader from bytes", false);
+		run(fromBytes, message, iterations, false);
+		System.out.println(fromBytes.getStats());
+	}
+
+	private static void run(ThroughputBenchmark benchmark, byte[] message, int iterations, boolean viaString) throws Exception {
+		DataObjectJSONReader reader = DataObjectJSONReader.forThread();
+		for ( int i = 0; i < iterations; i++ ) {
+			DataObject read;
+			if ( viaString ) {
+				read = DataObjectJSONCodec.fromJSONString(new String(message, "UTF-8"), new DataObject());
+			} else {
+				read = reader.read(message);
+			}
+			if ( read.size() == 0 ) {
+				throw new IllegalStateException("nothing read");
+			}
+			benchmark.incrementCount();
+		}
+	}
+
+	private static DataObject createMessage() {
+		DataObject message = new DataObject("message");
+		message.setString("from", "+15551234567");
+		message.setString("to", "+15557654321");
+		message.setString("body", "Your order has shipped and should arrive on Tuesday");
+		message.setLong("received", System.currentTimeMillis());
+		message.setInt("segments", 2);
+		message.setDouble("cost", 0.0075);
+		message.setBoolean("delivered", false);
+		message.setDate("sent", new Date());
+		DataObject carrier = message.getDataObject("carrier", true);
+		carrier.setString("name", "example");
+		carrier.setString("country", "US");
+		return message;
+	}
+}